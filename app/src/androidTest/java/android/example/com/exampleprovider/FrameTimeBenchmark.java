@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.annotation.TargetApi;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.ActivityInstrumentationTestCase2;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+import android.view.Choreographer;
+import android.widget.ListView;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures how smoothly {@link MainActivity} draws while the friends table is written to all the
+ * time, and how much memory {@link FriendsLoader}'s snapshots of the table hold. Every frame's
+ * start time is recorded with a {@link Choreographer} callback, and a frame that took more than
+ * one and a half refreshes counts as janky. Results are logged under the "Benchmark" tag.
+ * <p>
+ * This is a large test. Filling the table takes a while on a phone, and the frame times need
+ * Jelly Bean or later.
+ */
+@LargeTest
+public class FrameTimeBenchmark extends ActivityInstrumentationTestCase2<MainActivity> {
+    private static final String LOG_TAG = "Benchmark";
+
+    private static final int TABLE_SIZE = 100000;
+
+    // Rows per bulk insert while filling the table
+    private static final int FILL_CHUNK = 10000;
+
+    // How long frames are recorded for while the writes go on
+    private static final long MEASURE_MILLIS = 10000;
+
+    // One refresh at 60 frames a second
+    private static final long FRAME_NANOS = 1000000000L / 60;
+
+    // The share of frames allowed to be janky
+    private static final double MAX_JANKY_PERCENT = 5.0;
+
+    private ContentResolver mResolver;
+
+    public FrameTimeBenchmark() {
+        super(MainActivity.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mResolver = getInstrumentation().getTargetContext().getContentResolver();
+        mResolver.delete(ExampleEntry.CONTENT_URI, null, null);
+        fillTable(TABLE_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mResolver.delete(ExampleEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /**
+     * Records frame times while one thread keeps updating, inserting and deleting people, some
+     * of them on screen.
+     */
+    public void testFrameTimesUnderContinuousWrites() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            Log.i(LOG_TAG, "Frame times need Choreographer, skipped");
+            return;
+        }
+
+        final ListView listView = (ListView) getActivity().findViewById(R.id.main_list_view);
+        waitForList(listView, TABLE_SIZE);
+
+        final long firstId = getFirstId();
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicInteger writes = new AtomicInteger();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(42);
+                while (!stop.get()) {
+                    write(random, firstId, writes.getAndIncrement());
+                }
+            }
+        }, "writer");
+
+        final FrameRecorder recorder = new FrameRecorder(
+                (int) (MEASURE_MILLIS * 2 * 1000000 / FRAME_NANOS));
+        writer.start();
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+        Thread.sleep(MEASURE_MILLIS);
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+            }
+        });
+        stop.set(true);
+        writer.join();
+
+        long[] intervals = recorder.getIntervals();
+        assertTrue("No frames were drawn", intervals.length > 0);
+        int janky = 0;
+        for (long interval : intervals) {
+            if (interval > FRAME_NANOS * 3 / 2) {
+                janky++;
+            }
+        }
+        double jankyPercent = 100.0 * janky / intervals.length;
+        Arrays.sort(intervals);
+        Log.i(LOG_TAG, String.format("%d rows, %.0f writes/s: %d frames, p50 %.1f ms, " +
+                        "p90 %.1f ms, p99 %.1f ms, max %.1f ms, %d janky (%.2f%%)",
+                TABLE_SIZE, writes.get() * 1000.0 / MEASURE_MILLIS, intervals.length,
+                percentile(intervals, 50) / 1e6, percentile(intervals, 90) / 1e6,
+                percentile(intervals, 99) / 1e6, intervals[intervals.length - 1] / 1e6,
+                janky, jankyPercent));
+        assertTrue(String.format("%.2f%% of frames were janky", jankyPercent),
+                jankyPercent <= MAX_JANKY_PERCENT);
+    }
+
+    /**
+     * Measures the heap held by a snapshot of the whole table, and by a snapshot patched from it
+     * with nothing changed. The patched one shares the people of the first, so it has to cost a
+     * small part of it.
+     */
+    public void testSnapshotMemory() {
+        final FriendsLoader[] loader = new FriendsLoader[1];
+        getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                // Its observer needs a Looper
+                loader[0] = new FriendsLoader(getInstrumentation().getTargetContext());
+            }
+        });
+
+        long before = usedHeap();
+        FriendsLoader.Snapshot full = loader[0].loadInBackground();
+        loader[0].deliverResult(full);
+        long afterFull = usedHeap();
+        FriendsLoader.Snapshot patched = loader[0].loadInBackground();
+        long afterPatch = usedHeap();
+
+        assertEquals(TABLE_SIZE, full.friends.size());
+        assertEquals(TABLE_SIZE, patched.friends.size());
+        long fullBytes = afterFull - before;
+        long patchedBytes = afterPatch - afterFull;
+        Log.i(LOG_TAG, String.format("%d rows: full snapshot %d KB (%d bytes a person), " +
+                        "patched snapshot %d KB", TABLE_SIZE, fullBytes / 1024,
+                fullBytes / TABLE_SIZE, patchedBytes / 1024));
+        assertTrue(String.format("A patched snapshot held %d KB of a full one's %d KB",
+                        patchedBytes / 1024, fullBytes / 1024),
+                patchedBytes < fullBytes / 4);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            runtime.gc();
+            runtime.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Makes one change: mostly updates, some to the people on screen at the top of the list,
+     * with an insert and a delete now and then.
+     */
+    private void write(Random random, long firstId, int i) {
+        if (i % 50 == 0) {
+            ContentValues values = new ContentValues();
+            values.put(ExampleEntry.NAME, "Extra " + i);
+            values.put(ExampleEntry.NUMBER_OF_FRIENDS, i);
+            Uri uri = mResolver.insert(ExampleEntry.CONTENT_URI, values);
+            mResolver.delete(uri, null, null);
+            return;
+        }
+        long id = firstId + (i % 2 == 0 ? random.nextInt(20) : random.nextInt(TABLE_SIZE));
+        ContentValues values = new ContentValues();
+        values.put(ExampleEntry.NUMBER_OF_FRIENDS, random.nextInt(1000));
+        mResolver.update(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id), values,
+                null, null);
+    }
+
+    /**
+     * Waits for the list to show at least {@code count} people.
+     */
+    private void waitForList(final ListView listView, int count) throws InterruptedException {
+        final int[] shown = new int[1];
+        long deadline = SystemClock.uptimeMillis() + 60000;
+        while (SystemClock.uptimeMillis() < deadline) {
+            getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    shown[0] = listView.getAdapter().getCount();
+                }
+            });
+            if (shown[0] >= count) {
+                return;
+            }
+            Thread.sleep(100);
+        }
+        fail("The list only showed " + shown[0] + " of " + count + " people");
+    }
+
+    private void fillTable(int size) {
+        for (int start = 0; start < size; start += FILL_CHUNK) {
+            int end = Math.min(size, start + FILL_CHUNK);
+            ContentValues[] values = new ContentValues[end - start];
+            for (int i = start; i < end; i++) {
+                values[i - start] = new ContentValues();
+                values[i - start].put(ExampleEntry.NAME, "Person " + i);
+                values[i - start].put(ExampleEntry.NUMBER_OF_FRIENDS, i % 1000);
+            }
+            mResolver.bulkInsert(ExampleEntry.buildBulkInsertUri(FILL_CHUNK), values);
+        }
+    }
+
+    private long getFirstId() {
+        Cursor cursor = mResolver.query(ExampleEntry.buildPageByIdUri(1),
+                new String[] {ExampleEntry._ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Records the time each frame started, by asking for a callback on every frame. Only used on
+     * the main thread.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class FrameRecorder implements Choreographer.FrameCallback {
+        private final long[] mFrameTimes;
+        private int mCount;
+        private boolean mRunning;
+
+        FrameRecorder(int capacity) {
+            mFrameTimes = new long[capacity];
+        }
+
+        void start() {
+            mRunning = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            mRunning = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!mRunning) return;
+            if (mCount < mFrameTimes.length) {
+                mFrameTimes[mCount++] = frameTimeNanos;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /**
+         * The time between each frame and the one before it.
+         */
+        long[] getIntervals() {
+            long[] intervals = new long[Math.max(0, mCount - 1)];
+            for (int i = 1; i < mCount; i++) {
+                intervals[i - 1] = mFrameTimes[i] - mFrameTimes[i - 1];
+            }
+            return intervals;
+        }
+    }
+}
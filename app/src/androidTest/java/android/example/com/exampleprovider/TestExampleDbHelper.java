@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.example.com.exampleprovider.data.ExampleDbHelper;
+import android.test.AndroidTestCase;
+
+/**
+ * This is a collection of tests for the database schema. See {@link ExampleDbHelper}
+ */
+public class TestExampleDbHelper extends AndroidTestCase {
+
+    // A separate database file for the upgrade test, so it doesn't disturb the provider's
+    private static final String UPGRADE_TEST_DATABASE = "upgrade_test.db";
+    private static final String SYNCHRONOUS_TEST_DATABASE = "synchronous_test.db";
+
+    private ExampleDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDbHelper = new ExampleDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(UPGRADE_TEST_DATABASE);
+        mContext.deleteDatabase(SYNCHRONOUS_TEST_DATABASE);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that upgrading a version 1 database keeps its rows, adds the new indexes and fills
+     * the full-text index and the summary table, and that none of the rows start out deleted.
+     */
+    public void testUpgradeFromVersionOneKeepsRows() {
+        mContext.deleteDatabase(UPGRADE_TEST_DATABASE);
+
+        // Builds the database the way version 1 of the app did
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(UPGRADE_TEST_DATABASE), null);
+        try {
+            oldDb.execSQL("CREATE TABLE " + ExampleEntry.PATH_FRIENDS + " (" +
+                    ExampleEntry._ID + " INTEGER PRIMARY KEY," +
+                    ExampleEntry.NAME + " TEXT UNIQUE NOT NULL, " +
+                    ExampleEntry.NUMBER_OF_FRIENDS + " INTEGER NOT NULL);");
+            String insert = "INSERT INTO " + ExampleEntry.PATH_FRIENDS + " (" +
+                    ExampleEntry.NAME + ", " + ExampleEntry.NUMBER_OF_FRIENDS + ") VALUES (?, ?);";
+            oldDb.execSQL(insert, new Object[] {"Dan", 52});
+            oldDb.execSQL(insert, new Object[] {"Katherine", 598});
+            oldDb.setVersion(1);
+        } finally {
+            oldDb.close();
+        }
+
+        ExampleDbHelper upgraded = new ExampleDbHelper(mContext, UPGRADE_TEST_DATABASE);
+        try {
+            SQLiteDatabase db = upgraded.getReadableDatabase();
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, ExampleEntry.PATH_FRIENDS));
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND name = ?",
+                    new String[] {ExampleDbHelper.INDEX_NUM_FRIENDS}));
+            assertEquals(1, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + ExampleDbHelper.TABLE_FRIENDS_FTS + " WHERE " +
+                            ExampleDbHelper.TABLE_FRIENDS_FTS + " MATCH 'kath*'", null));
+            assertEquals(650, DatabaseUtils.longForQuery(db,
+                    "SELECT " + ExampleDbHelper.SUMMARY_FRIENDS_SUM + " FROM " +
+                            ExampleDbHelper.TABLE_FRIENDS_SUMMARY, null));
+            assertEquals(2, DatabaseUtils.longForQuery(db,
+                    "SELECT COUNT(*) FROM " + ExampleEntry.PATH_FRIENDS + " WHERE " +
+                            ExampleDbHelper.WHERE_NOT_DELETED, null));
+
+            // Version 1 was created without auto-vacuum, so it has to be switched by maintenance
+            assertTrue(upgraded.enableIncrementalVacuum());
+            assertEquals(2, DatabaseUtils.queryNumEntries(db, ExampleEntry.PATH_FRIENDS));
+        } finally {
+            upgraded.close();
+        }
+    }
+
+    /**
+     * Tests that the synchronous level passed to the helper is used in write-ahead logging mode,
+     * and that NORMAL is the default.
+     */
+    public void testWalSynchronousMode() {
+        try {
+            new ExampleDbHelper(mContext, SYNCHRONOUS_TEST_DATABASE, "EXTRA; DROP TABLE friends");
+            fail("An unknown synchronous mode should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // The expected case.
+        }
+
+        mContext.deleteDatabase(SYNCHRONOUS_TEST_DATABASE);
+        ExampleDbHelper full = new ExampleDbHelper(mContext, SYNCHRONOUS_TEST_DATABASE,
+                ExampleDbHelper.SYNCHRONOUS_FULL);
+        try {
+            SQLiteDatabase db = full.getWritableDatabase();
+            if (!"wal".equalsIgnoreCase(
+                    DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null))) {
+                // Without the log the level is left alone
+                return;
+            }
+            // PRAGMA synchronous reads 1 for NORMAL and 2 for FULL
+            assertEquals(2, DatabaseUtils.longForQuery(db, "PRAGMA synchronous", null));
+            assertEquals(1, DatabaseUtils.longForQuery(mDbHelper.getWritableDatabase(),
+                    "PRAGMA synchronous", null));
+        } finally {
+            full.close();
+        }
+    }
+
+    /**
+     * Tests that a "top friends" query is answered from the index on the number of friends.
+     */
+    public void testTopFriendsUsesIndex() {
+        assertPlanUsesIndex(
+                "SELECT " + ExampleEntry._ID + ", " + ExampleEntry.NAME + ", " +
+                        ExampleEntry.NUMBER_OF_FRIENDS +
+                        " FROM " + ExampleEntry.PATH_FRIENDS +
+                        " ORDER BY " + ExampleEntry.NUMBER_OF_FRIENDS + " DESC LIMIT 10",
+                ExampleDbHelper.INDEX_NUM_FRIENDS);
+    }
+
+    /**
+     * Tests that filtering on the number of friends uses the index on the number of friends.
+     */
+    public void testNumberOfFriendsFilterUsesIndex() {
+        assertPlanUsesIndex(
+                "SELECT " + ExampleEntry.NAME + " FROM " + ExampleEntry.PATH_FRIENDS +
+                        " WHERE " + ExampleEntry.NUMBER_OF_FRIENDS + " > 100",
+                ExampleDbHelper.INDEX_NUM_FRIENDS);
+    }
+
+    /**
+     * Tests that a name prefix query uses the case insensitive index on the name.
+     */
+    public void testNamePrefixUsesIndex() {
+        assertPlanUsesIndex(
+                "SELECT " + ExampleEntry._ID + " FROM " + ExampleEntry.PATH_FRIENDS +
+                        " WHERE " + ExampleEntry.NAME + " LIKE 'Da%'",
+                ExampleDbHelper.INDEX_NAME_NOCASE);
+    }
+
+    /**
+     * Helper method to check that the plan SQLite picks for a query mentions an index.
+     */
+    private void assertPlanUsesIndex(String sql, String indexName) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        StringBuilder plan = new StringBuilder();
+        try {
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue("Expected " + indexName + " in plan:\n" + plan,
+                plan.indexOf(indexName) >= 0);
+    }
+}
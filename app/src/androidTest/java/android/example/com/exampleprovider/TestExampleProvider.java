@@ -15,20 +15,51 @@
  */
 package android.example.com.exampleprovider;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract;
+import android.example.com.exampleprovider.data.ExampleContract.AggregateEntry;
+import android.example.com.exampleprovider.data.ExampleContract.ChangeEntry;
 import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.example.com.exampleprovider.data.ExampleContract.SlowQueryEntry;
+import android.example.com.exampleprovider.data.ExampleContract.StatsEntry;
 import android.example.com.exampleprovider.data.ExampleProvider;
+import android.example.com.exampleprovider.data.Friend;
+import android.example.com.exampleprovider.data.FriendListObserver;
+import android.example.com.exampleprovider.data.FriendsBinaryFormat;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a collection of tests for the associated Content Provider. See
  * {@link ExampleProvider}
  */
 public class TestExampleProvider extends AndroidTestCase {
+    private static final String LOG_TAG = TestExampleProvider.class.getSimpleName();
+
     /**
      *     Setup is called before each test
      */
@@ -178,6 +209,476 @@ public class TestExampleProvider extends AndroidTestCase {
         }
     }
 
+    /**
+     * Tests {@link ExampleProvider}'s bulk insert method when the rows are committed in several
+     * chunks and some of them break the unique constraint on the name.
+     */
+    public void testBulkInsertInChunks() {
+        ContentValues[] values = new ContentValues[7];
+        for (int i = 0; i < values.length; i++) {
+            // Every third row reuses the name of the row before it
+            String name = "Person " + (i % 3 == 2 ? i - 1 : i);
+            values[i] = createDummyDataOnePerson(name, i);
+        }
+
+        int inserted = mContext.getContentResolver().bulkInsert(
+                ExampleEntry.buildBulkInsertUri(2), values);
+
+        // The two duplicates are skipped, everything else is committed.
+        assertEquals(5, inserted);
+        assertResultCount(ExampleEntry.CONTENT_URI, 5);
+    }
+
+    /**
+     * Tests that {@link ExampleProvider}'s bulk insert reports the problems with every invalid
+     * row at once, and doesn't insert any of the rows.
+     */
+    public void testBulkInsertReportsEveryInvalidRow() {
+        ContentValues[] values = createDummyDataArray(5);
+        values[1].put(ExampleEntry.NUMBER_OF_FRIENDS, -1);
+        values[3].put(ExampleEntry.NUMBER_OF_FRIENDS, "lots");
+        values[4].put("nickname", "Pat");
+
+        try {
+            mContext.getContentResolver().bulkInsert(ExampleEntry.CONTENT_URI, values);
+            fail("Bulk insert with invalid rows should throw IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            String message = e.getMessage();
+            assertTrue(message, message.contains("row 1: "));
+            assertTrue(message, message.contains("row 3: "));
+            assertTrue(message, message.contains("row 4: "));
+            assertFalse(message, message.contains("row 0: "));
+        }
+
+        assertResultCount(ExampleEntry.CONTENT_URI, 0);
+    }
+
+    /**
+     * Tests {@link ExampleProvider}'s insert with each of the conflict policies for a name that
+     * is already in the table.
+     */
+    public void testInsertWithConflictPolicies() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri uri = resolver.insert(ExampleEntry.CONTENT_URI, createDummyDataOnePerson("Dan", 10));
+
+        // Without a policy the clash is an error
+        assertNull(resolver.insert(ExampleEntry.CONTENT_URI, createDummyDataOnePerson("Dan", 5)));
+
+        Uri ignored = resolver.insert(ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_IGNORE),
+                createDummyDataOnePerson("Dan", 5));
+        assertEquals(uri, ignored);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 10));
+
+        Uri merged = resolver.insert(ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_MERGE),
+                createDummyDataOnePerson("Dan", 5));
+        assertEquals(uri, merged);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 10));
+
+        merged = resolver.insert(ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_MERGE),
+                createDummyDataOnePerson("Dan", 20));
+        assertEquals(uri, merged);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 20));
+
+        Uri replaced = resolver.insert(ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_REPLACE),
+                createDummyDataOnePerson("Dan", 3));
+        assertEquals(uri, replaced);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 3));
+
+        assertResultCount(ExampleEntry.CONTENT_URI, 1);
+    }
+
+    /**
+     * Tests that people inserted with a policy that replaces the person with the same name
+     * can't pick their own ID, which would delete that person and leave them cached.
+     */
+    public void testUpsertRejectsId() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri uri = resolver.insert(ExampleEntry.CONTENT_URI, createDummyDataOnePerson("Dan", 10));
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 10));
+
+        ContentValues values = createDummyDataOnePerson("Dan", 3);
+        values.put(ExampleEntry._ID, ContentUris.parseId(uri) + 1000);
+        String[] policies = new String[] {ExampleEntry.CONFLICT_REPLACE,
+                ExampleEntry.CONFLICT_MERGE};
+        for (String policy : policies) {
+            try {
+                resolver.insert(ExampleEntry.buildUpsertUri(policy), values);
+                fail("Insert with an ID should have been rejected: " + policy);
+            } catch (IllegalArgumentException e) {
+                // The expected case.
+            }
+            try {
+                resolver.bulkInsert(ExampleEntry.buildUpsertUri(policy),
+                        new ContentValues[] {values});
+                fail("Bulk insert with an ID should have been rejected: " + policy);
+            } catch (IllegalArgumentException e) {
+                // The expected case.
+            }
+        }
+
+        // Dan is still there, under the same ID
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Dan", 10));
+        assertResultCount(ExampleEntry.CONTENT_URI, 1);
+    }
+
+    /**
+     * Tests {@link ExampleProvider}'s bulk insert with a conflict policy, which updates the people
+     * already in the table and inserts the rest.
+     */
+    public void testBulkInsertWithConflictPolicy() {
+        Uri[] uris = insertDummyData(createDummyDataArray(3));
+
+        ContentValues[] values = new ContentValues[] {
+                createDummyDataOnePerson("Person 0", 100),
+                createDummyDataOnePerson("Person 1", 0),
+                createDummyDataOnePerson("Person 3", 3)
+        };
+        int written = mContext.getContentResolver().bulkInsert(
+                ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_MERGE), values);
+
+        assertEquals(3, written);
+        assertResultCount(ExampleEntry.CONTENT_URI, 4);
+        assertCorrectStoredValues(uris[0], createDummyDataOnePerson("Person 0", 100));
+        assertCorrectStoredValues(uris[1], createDummyDataOnePerson("Person 1", 1));
+    }
+
+    /**
+     * Tests reading the whole table from the export URI, across several of the pages the
+     * provider reads it in.
+     */
+    public void testExport() throws IOException {
+        ContentValues[] values = createDummyDataArray(1200);
+        mContext.getContentResolver().bulkInsert(ExampleEntry.CONTENT_URI, values);
+
+        InputStream in = new BufferedInputStream(
+                mContext.getContentResolver().openInputStream(ExampleEntry.EXPORT_URI));
+        try {
+            FriendsBinaryFormat.Reader reader = new FriendsBinaryFormat.Reader(in);
+            long lastId = Long.MIN_VALUE;
+            int count = 0;
+            while (reader.next()) {
+                // Bulk inserts keep their order, and the export is ordered by ID
+                assertTrue(reader.getId() > lastId);
+                assertEquals(values[count].getAsString(ExampleEntry.NAME), reader.getName());
+                assertEquals(values[count].getAsInteger(ExampleEntry.NUMBER_OF_FRIENDS).intValue(),
+                        reader.getNumberOfFriends());
+                lastId = reader.getId();
+                count++;
+            }
+            assertEquals(values.length, count);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Tests writing people to the import URI, and following its progress until it finishes.
+     */
+    public void testImport() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        OutputStream out = new BufferedOutputStream(
+                resolver.openOutputStream(ExampleContract.ImportEntry.CONTENT_URI));
+        try {
+            FriendsBinaryFormat.Writer writer = new FriendsBinaryFormat.Writer(out);
+            for (int i = 0; i < 1200; i++) {
+                writer.writeRow(i, "Person " + i, i);
+            }
+            // A name that is already taken is an error, but doesn't stop the import
+            writer.writeRow(1200, "Person 0", 5);
+            writer.finish();
+        } finally {
+            out.close();
+        }
+
+        // The import carries on in the background after the stream is closed
+        long deadline = SystemClock.uptimeMillis() + 10000;
+        String state;
+        Cursor cursor;
+        do {
+            cursor = resolver.query(ExampleContract.ImportEntry.CONTENT_URI, null, null, null,
+                    null);
+            assertTrue(cursor.moveToFirst());
+            state = cursor.getString(cursor.getColumnIndex(ExampleContract.ImportEntry.STATE));
+            if (ExampleContract.ImportEntry.STATE_RUNNING.equals(state)) {
+                cursor.close();
+                SystemClock.sleep(50);
+            }
+        } while (ExampleContract.ImportEntry.STATE_RUNNING.equals(state)
+                && SystemClock.uptimeMillis() < deadline);
+
+        try {
+            assertEquals(ExampleContract.ImportEntry.STATE_FINISHED, state);
+            assertEquals(1201, cursor.getInt(
+                    cursor.getColumnIndex(ExampleContract.ImportEntry.ROWS_READ)));
+            assertEquals(1200, cursor.getInt(
+                    cursor.getColumnIndex(ExampleContract.ImportEntry.ROWS_INSERTED)));
+            assertEquals(1, cursor.getInt(
+                    cursor.getColumnIndex(ExampleContract.ImportEntry.ERRORS)));
+        } finally {
+            cursor.close();
+        }
+        assertResultCount(ExampleEntry.CONTENT_URI, 1200);
+    }
+
+    /**
+     * Tests {@link ExampleProvider}'s search URI, which should find words starting with the
+     * search anywhere in the name, rank the best matches first and follow changes to the table.
+     */
+    public void testSearch() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri[] uris = insertDummyData(new ContentValues[] {
+                createDummyDataOnePerson("Danielle Smith", 1),
+                createDummyDataOnePerson("Jordan", 2),
+                createDummyDataOnePerson("Daniel", 3),
+                createDummyDataOnePerson("Dan", 4),
+                createDummyDataOnePerson("Bob", 5)
+        });
+
+        assertSearchResults("dan", "Dan", "Daniel", "Danielle Smith");
+        assertSearchResults("SMI", "Danielle Smith");
+        assertSearchResults("dan smith", "Danielle Smith");
+        // Query syntax is treated as plain words
+        assertSearchResults("\"bob\"", "Bob");
+        assertSearchResults("*");
+
+        // The index follows updates and deletes
+        resolver.update(uris[4], createDummyDataOnePerson("Danny", 5), null, null);
+        assertSearchResults("bob");
+        assertSearchResults("danny", "Danny");
+        resolver.delete(ExampleEntry.CONTENT_URI, null, null);
+        assertSearchResults("dan");
+    }
+
+    /**
+     * Helper method to check the names a search returns, in order.
+     */
+    private void assertSearchResults(String search, String... expectedNames) {
+        Cursor cursor = mContext.getContentResolver().query(ExampleEntry.buildSearchUri(search),
+                new String[] {ExampleEntry.NAME}, null, null, null);
+        try {
+            String[] names = new String[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                names[i] = cursor.getString(0);
+            }
+            assertEquals("Searching for " + search, Arrays.toString(expectedNames),
+                    Arrays.toString(names));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests that the aggregate URI follows inserts, updates, replacements and deletes, and works
+     * out the statistics for a selection.
+     */
+    public void testAggregates() {
+        ContentResolver resolver = mContext.getContentResolver();
+        assertAggregates(null, 0, 0, null, null, null);
+
+        // Numbers of friends from 0 to 4
+        Uri[] uris = insertDummyData(createDummyDataArray(5));
+        assertAggregates(null, 5, 10, 2.0, 0L, 4L);
+
+        resolver.update(uris[0], createDummyDataOnePerson("Person 0", 10), null, null);
+        assertAggregates(null, 5, 20, 4.0, 1L, 10L);
+
+        // Replacing a person removes the old row, which has to be taken out of the totals
+        resolver.insert(ExampleEntry.buildUpsertUri(ExampleEntry.CONFLICT_REPLACE),
+                createDummyDataOnePerson("Person 1", 6));
+        assertAggregates(null, 5, 25, 5.0, 2L, 10L);
+
+        resolver.delete(uris[0], null, null);
+        assertAggregates(null, 4, 15, 3.75, 2L, 6L);
+
+        assertAggregates(ExampleEntry.NUMBER_OF_FRIENDS + " > 3", 2, 10, 5.0, 4L, 6L);
+    }
+
+    /**
+     * Tests the histogram URI.
+     */
+    public void testHistogram() {
+        insertDummyData(createDummyDataArray(5));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                AggregateEntry.buildHistogramUri(2), null, null, null, null);
+        try {
+            int start = cursor.getColumnIndex(AggregateEntry.BUCKET_START);
+            int count = cursor.getColumnIndex(AggregateEntry.COUNT);
+            StringBuilder buckets = new StringBuilder();
+            while (cursor.moveToNext()) {
+                buckets.append(cursor.getInt(start)).append(':').append(cursor.getInt(count))
+                        .append(' ');
+            }
+            assertEquals("0:2 2:2 4:1 ", buckets.toString());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests the URI for the people with the most friends.
+     */
+    public void testTopFriends() {
+        insertDummyData(createDummyDataArray(5));
+
+        Cursor cursor = mContext.getContentResolver().query(ExampleEntry.buildTopUri(2),
+                new String[] {ExampleEntry.NAME}, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals("Person 4", cursor.getString(0));
+            cursor.moveToNext();
+            assertEquals("Person 3", cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Helper method to check every column of the aggregate URI. Null means the column should be
+     * null.
+     */
+    private void assertAggregates(String selection, long count, long sum, Double average,
+                                  Long min, Long max) {
+        Cursor cursor = mContext.getContentResolver().query(AggregateEntry.CONTENT_URI, null,
+                selection, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(count, cursor.getLong(cursor.getColumnIndex(AggregateEntry.COUNT)));
+            assertEquals(sum, cursor.getLong(cursor.getColumnIndex(AggregateEntry.SUM)));
+
+            int averageIndex = cursor.getColumnIndex(AggregateEntry.AVERAGE);
+            assertEquals(average == null, cursor.isNull(averageIndex));
+            if (average != null) {
+                assertEquals(average, cursor.getDouble(averageIndex), 1e-9);
+            }
+            int minIndex = cursor.getColumnIndex(AggregateEntry.MIN);
+            assertEquals(min == null, cursor.isNull(minIndex));
+            if (min != null) {
+                assertEquals(min.longValue(), cursor.getLong(minIndex));
+            }
+            int maxIndex = cursor.getColumnIndex(AggregateEntry.MAX);
+            assertEquals(max == null, cursor.isNull(maxIndex));
+            if (max != null) {
+                assertEquals(max.longValue(), cursor.getLong(maxIndex));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests {@link ExampleProvider}'s paged query ordered by ID by reading the table two rows at
+     * a time.
+     */
+    public void testQueryPagesById() {
+        insertDummyData(createDummyDataArray(5));
+
+        long lastId = -1;
+        int total = 0;
+        int pages = 0;
+        while (true) {
+            Uri pageUri = (pages == 0) ? ExampleEntry.buildPageByIdUri(2)
+                    : ExampleEntry.buildPageByIdUri(lastId, 2);
+            Cursor cursor = mContext.getContentResolver().query(pageUri,
+                    new String[] {ExampleEntry._ID}, null, null, null);
+            try {
+                if (cursor.getCount() == 0) break;
+                assertTrue(cursor.getCount() <= 2);
+                while (cursor.moveToNext()) {
+                    // IDs keep going up from one page to the next
+                    assertTrue(cursor.getLong(0) > lastId);
+                    lastId = cursor.getLong(0);
+                    total++;
+                }
+            } finally {
+                cursor.close();
+            }
+            pages++;
+        }
+        assertEquals(5, total);
+        assertEquals(3, pages);
+    }
+
+    /**
+     * Tests {@link ExampleProvider}'s paged query ordered by name.
+     */
+    public void testQueryPagesByName() {
+        insertDummyData(createDummyDataArray(5));
+
+        String lastName = null;
+        long lastId = -1;
+        int total = 0;
+        while (true) {
+            Uri pageUri = (lastName == null) ? ExampleEntry.buildPageByNameUri(2)
+                    : ExampleEntry.buildPageByNameUri(lastName, lastId, 2);
+            Cursor cursor = mContext.getContentResolver().query(pageUri,
+                    new String[] {ExampleEntry._ID, ExampleEntry.NAME}, null, null, null);
+            try {
+                if (cursor.getCount() == 0) break;
+                while (cursor.moveToNext()) {
+                    // Names keep going up from one page to the next
+                    if (lastName != null) {
+                        assertTrue(cursor.getString(1).compareTo(lastName) > 0);
+                    }
+                    lastId = cursor.getLong(0);
+                    lastName = cursor.getString(1);
+                    total++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        assertEquals(5, total);
+    }
+
+    /**
+     * Tests that queries keep being answered while a large bulk insert holds a write transaction
+     * open, which needs write-ahead logging.
+     */
+    public void testReadsDuringBulkInsert() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            // No write-ahead logging, so readers are expected to wait
+            return;
+        }
+        Uri[] uris = insertDummyData(createDummyDataArray());
+
+        final ContentValues[] values = createDummyDataArray(20000);
+        final long[] writeTime = new long[2];
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeTime[0] = SystemClock.elapsedRealtime();
+                // A single chunk, so the whole insert is one long transaction
+                mContext.getContentResolver().bulkInsert(
+                        ExampleEntry.buildBulkInsertUri(values.length), values);
+                writeTime[1] = SystemClock.elapsedRealtime();
+            }
+        });
+
+        long[] readLatencies = new long[100000];
+        int reads = 0;
+        int readsDuringWrite = 0;
+        writer.start();
+        while (writer.isAlive() && reads < readLatencies.length) {
+            long start = SystemClock.elapsedRealtime();
+            assertResultCount(uris[0], 1);
+            long end = SystemClock.elapsedRealtime();
+            readLatencies[reads++] = end - start;
+            if (writer.isAlive()) {
+                readsDuringWrite++;
+            }
+        }
+        writer.join();
+        assertTrue("No reads completed while the bulk insert was running",
+                readsDuringWrite > 0);
+
+        Arrays.sort(readLatencies, 0, reads);
+        Log.i(LOG_TAG, String.format("Bulk insert took %d ms; %d reads, p50 %d ms, max %d ms",
+                writeTime[1] - writeTime[0], reads, readLatencies[reads / 2],
+                readLatencies[reads - 1]));
+    }
+
     /**
      * Tests {@link ExampleProvider}'s update by changing one values in one row.
      */
@@ -215,6 +716,44 @@ public class TestExampleProvider extends AndroidTestCase {
         assertCorrectStoredValues(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id), value);
     }
 
+    /**
+     * Tests that repeated lookups of one person are answered from the row cache, and that an
+     * update makes the next lookup see the new values.
+     */
+    public void testRowCache() {
+        Uri uri = insertDummyData(createDummyDataArray())[0];
+
+        long hitsBefore = getStat(StatsEntry.ROW_CACHE_HITS);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Katherine", 554));
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Katherine", 554));
+        assertTrue(getStat(StatsEntry.ROW_CACHE_HITS) > hitsBefore);
+
+        ContentValues value = new ContentValues();
+        value.put(ExampleEntry.NUMBER_OF_FRIENDS, 1000);
+        mContext.getContentResolver().update(uri, value, null, null);
+        assertCorrectStoredValues(uri, createDummyDataOnePerson("Katherine", 1000));
+
+        mContext.getContentResolver().delete(uri, null, null);
+        assertResultCount(uri, 0);
+    }
+
+    /**
+     * Tests that running the same query twice is answered from the result cache, and that a
+     * write drops the cached result.
+     */
+    public void testResultCache() {
+        insertDummyData(createDummyDataArray());
+
+        long hitsBefore = getStat(StatsEntry.RESULT_CACHE_HITS);
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+        assertEquals(1, getStat(StatsEntry.RESULT_CACHE_HITS) - hitsBefore);
+
+        mContext.getContentResolver().insert(ExampleEntry.CONTENT_URI,
+                createDummyDataOnePerson("Sarah", 7));
+        assertResultCount(ExampleEntry.CONTENT_URI, 3);
+    }
+
     /**
      * Tests {@link ExampleProvider}'s update by changing multiple entries.
      */
@@ -248,6 +787,191 @@ public class TestExampleProvider extends AndroidTestCase {
         }
     }
 
+    /**
+     * Tests that {@link ExampleProvider}'s update and delete only change the people matching the
+     * selection.
+     */
+    public void testUpdateAndDeleteWithSelection() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri[] uris = insertDummyData(createDummyDataArray(5));
+
+        ContentValues value = new ContentValues();
+        value.put(ExampleEntry.NUMBER_OF_FRIENDS, 100);
+        assertEquals(2, resolver.update(ExampleEntry.CONTENT_URI, value,
+                ExampleEntry.NUMBER_OF_FRIENDS + " < ?", new String[] {"2"}));
+        assertResultCount(ExampleEntry.CONTENT_URI, null, ExampleEntry.NUMBER_OF_FRIENDS + " = ?",
+                new String[] {"100"}, 2);
+
+        // A selection on a single person's URI narrows it further
+        assertEquals(0, resolver.update(uris[4], value, ExampleEntry.NAME + " = ?",
+                new String[] {"Person 0"}));
+        assertEquals(0, resolver.delete(uris[4], ExampleEntry.NAME + " = ?",
+                new String[] {"Person 0"}));
+
+        assertEquals(2, resolver.delete(ExampleEntry.CONTENT_URI,
+                ExampleEntry.NUMBER_OF_FRIENDS + " = ?", new String[] {"100"}));
+        assertResultCount(ExampleEntry.CONTENT_URI, 3);
+    }
+
+    /**
+     * Tests that soft deleted people disappear from queries, the totals and the search straight
+     * away, and that their names can be used again. Removing them for good is tested in
+     * TestTombstoneCompactor.
+     */
+    public void testSoftDelete() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri[] uris = insertDummyData(createDummyDataArray(3));
+
+        assertEquals(1, resolver.delete(ExampleEntry.buildSoftDeleteUri(uris[0]), null, null));
+        assertEquals(0, resolver.delete(ExampleEntry.buildSoftDeleteUri(uris[0]), null, null));
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+        assertResultCount(uris[0], 0);
+        assertResultCount(ExampleEntry.buildSearchUri("Person 0"), 0);
+        assertAggregates(null, 2, 3, 1.5, 1L, 2L);
+
+        // The deleted person's name is free again
+        assertNotNull(resolver.insert(ExampleEntry.CONTENT_URI,
+                createDummyDataOnePerson("Person 0", 7)));
+        assertResultCount(ExampleEntry.CONTENT_URI, 3);
+
+        assertEquals(2, resolver.delete(ExampleEntry.buildSoftDeleteUri(ExampleEntry.CONTENT_URI),
+                ExampleEntry.NUMBER_OF_FRIENDS + " > ?", new String[] {"1"}));
+        assertResultCount(ExampleEntry.CONTENT_URI, 1);
+    }
+
+    /**
+     * Tests that every change to a person is in the change log, in order and with the person's
+     * current values, and that a client without a valid sequence number is told to start over.
+     */
+    public void testChangeLog() {
+        ContentResolver resolver = mContext.getContentResolver();
+        Cursor cursor = resolver.query(ChangeEntry.CONTENT_URI, null, null, null, null);
+        long since;
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(ChangeEntry.OPERATION_RESET,
+                    cursor.getString(cursor.getColumnIndex(ChangeEntry.OPERATION)));
+            since = cursor.getLong(cursor.getColumnIndex(ChangeEntry.SEQUENCE));
+        } finally {
+            cursor.close();
+        }
+
+        Uri[] uris = insertDummyData(createDummyDataArray(2));
+        long first = ContentUris.parseId(uris[0]);
+        long second = ContentUris.parseId(uris[1]);
+        resolver.update(uris[0], createDummyDataOnePerson("Person 0", 10), null, null);
+        resolver.delete(ExampleEntry.buildSoftDeleteUri(uris[1]), null, null);
+
+        cursor = resolver.query(ChangeEntry.buildChangesUri(since, 100), null, null, null, null);
+        try {
+            assertEquals(4, cursor.getCount());
+            assertNextChange(cursor, since, first, ChangeEntry.OPERATION_INSERT, "Person 0", 10);
+            assertNextChange(cursor, since, second, ChangeEntry.OPERATION_INSERT, null, null);
+            assertNextChange(cursor, since, first, ChangeEntry.OPERATION_UPDATE, "Person 0", 10);
+            assertNextChange(cursor, since, second, ChangeEntry.OPERATION_DELETE, null, null);
+        } finally {
+            cursor.close();
+        }
+
+        // Paging on from the last change seen returns nothing new
+        cursor = resolver.query(ChangeEntry.buildChangesUri(since + 4, 100), null, null, null,
+                null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        // Sequence numbers from before the oldest change kept mean changes were missed
+        cursor = resolver.query(ChangeEntry.buildChangesUri(-1, 100), null, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(ChangeEntry.OPERATION_RESET,
+                    cursor.getString(cursor.getColumnIndex(ChangeEntry.OPERATION)));
+            assertEquals(since + 4, cursor.getLong(cursor.getColumnIndex(ChangeEntry.SEQUENCE)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Tests that a change to a single person reaches observers of the change log, even though it
+     * is notified on the person's own URI.
+     */
+    public void testChangeLogNotified() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        Uri rowUri = resolver.insert(ExampleEntry.CONTENT_URI,
+                createDummyDataOnePerson("Sarah", 7));
+
+        HandlerThread thread = new HandlerThread("observer");
+        thread.start();
+        final CountDownLatch changed = new CountDownLatch(1);
+        ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changed.countDown();
+            }
+        };
+        // Lets the notification for the insert go out before registering
+        Thread.sleep(200);
+        resolver.registerContentObserver(ChangeEntry.CONTENT_URI, false, observer);
+        try {
+            ContentValues values = new ContentValues();
+            values.put(ExampleEntry.NUMBER_OF_FRIENDS, 8);
+            assertEquals(1, resolver.update(rowUri, values, null, null));
+            assertTrue("The change log wasn't notified", changed.await(5, TimeUnit.SECONDS));
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            thread.quit();
+        }
+    }
+
+    /**
+     * Helper method to check the next row of a change log cursor. Each row's sequence number
+     * must be one more than the row before, counting from {@code since}.
+     */
+    private static void assertNextChange(Cursor cursor, long since, long friendId,
+                                         String operation, String name, Integer friends) {
+        assertTrue(cursor.moveToNext());
+        assertEquals(since + cursor.getPosition() + 1,
+                cursor.getLong(cursor.getColumnIndex(ChangeEntry.SEQUENCE)));
+        assertEquals(friendId, cursor.getLong(cursor.getColumnIndex(ChangeEntry.FRIEND_ID)));
+        assertEquals(operation, cursor.getString(cursor.getColumnIndex(ChangeEntry.OPERATION)));
+        assertEquals(name, cursor.getString(cursor.getColumnIndex(ExampleEntry.NAME)));
+        int friendsColumn = cursor.getColumnIndex(ExampleEntry.NUMBER_OF_FRIENDS);
+        assertEquals(friends, cursor.isNull(friendsColumn) ? null : cursor.getInt(friendsColumn));
+    }
+
+    /**
+     * Tests that {@link ExampleEntry#BATCH_UPDATE_URI} gives each person their own values.
+     */
+    public void testBatchUpdate() {
+        Uri[] uris = insertDummyData(createDummyDataArray(3));
+
+        ContentValues[] rows = new ContentValues[3];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new ContentValues();
+            rows[i].put(ExampleEntry._ID, ContentUris.parseId(uris[i]));
+            rows[i].put(ExampleEntry.NUMBER_OF_FRIENDS, 10 * (i + 1));
+        }
+        // Different columns in one batch
+        rows[2].put(ExampleEntry.NAME, "Sarah");
+        assertEquals(3, mContext.getContentResolver().bulkInsert(ExampleEntry.BATCH_UPDATE_URI,
+                rows));
+
+        assertCorrectStoredValues(uris[0], createDummyDataOnePerson("Person 0", 10));
+        assertCorrectStoredValues(uris[1], createDummyDataOnePerson("Person 1", 20));
+        assertCorrectStoredValues(uris[2], createDummyDataOnePerson("Sarah", 30));
+
+        ContentValues missingId = new ContentValues();
+        missingId.put(ExampleEntry.NUMBER_OF_FRIENDS, 1);
+        try {
+            mContext.getContentResolver().bulkInsert(ExampleEntry.BATCH_UPDATE_URI,
+                    new ContentValues[] {rows[0], missingId});
+            fail("A row without an ID should have been rejected");
+        } catch (IllegalArgumentException e) {
+            // The expected case.
+        }
+    }
+
     /**
      * Tests {@link ExampleProvider}'s update by trying to change an entry to an invalid value.
      */
@@ -269,6 +993,314 @@ public class TestExampleProvider extends AndroidTestCase {
         }
     }
 
+    /**
+     * Tests {@link ExampleProvider}'s applyBatch method with a mix of inserts, updates and deletes.
+     */
+    public void testApplyBatch() throws Exception {
+        Uri[] uris = insertDummyData(createDummyDataArray());
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(ExampleEntry.CONTENT_URI)
+                .withValues(createDummyDataOnePerson("Sarah", 7))
+                .build());
+        operations.add(ContentProviderOperation.newUpdate(uris[0])
+                .withValue(ExampleEntry.NUMBER_OF_FRIENDS, 1)
+                .withYieldAllowed(true)
+                .build());
+        operations.add(ContentProviderOperation.newDelete(uris[1])
+                .withYieldAllowed(true)
+                .build());
+
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                ExampleContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals(3, results.length);
+        assertNotNull(results[0].uri);
+        assertEquals(1, results[1].count.intValue());
+        assertEquals(1, results[2].count.intValue());
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+        assertCorrectStoredValues(results[0].uri, createDummyDataOnePerson("Sarah", 7));
+    }
+
+    /**
+     * Tests that {@link ExampleProvider} times its operations, and that the timings can be reset
+     * and turned off.
+     */
+    public void testMetrics() {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(StatsEntry.CONTENT_URI, null, null);
+        assertEquals(0, getStat(StatsEntry.OPERATION_INSERT + StatsEntry.SUFFIX_MICROS +
+                StatsEntry.SUFFIX_COUNT));
+
+        insertDummyData(createDummyDataArray(3));
+        resolver.bulkInsert(ExampleEntry.CONTENT_URI, new ContentValues[] {
+                createDummyDataOnePerson("Sarah", 7), createDummyDataOnePerson("Dan", 52)});
+        assertResultCount(ExampleEntry.CONTENT_URI, 5);
+
+        assertEquals(3, getStat(StatsEntry.OPERATION_INSERT + StatsEntry.SUFFIX_MICROS +
+                StatsEntry.SUFFIX_COUNT));
+        assertEquals(3, getStat(StatsEntry.OPERATION_INSERT + StatsEntry.SUFFIX_ROWS));
+        assertEquals(2, getStat(StatsEntry.OPERATION_BULK_INSERT + StatsEntry.SUFFIX_ROWS));
+        assertEquals(1, getStat(StatsEntry.OPERATION_TRANSACTION + StatsEntry.SUFFIX_MICROS +
+                StatsEntry.SUFFIX_COUNT));
+        assertTrue(getStat(StatsEntry.OPERATION_QUERY + StatsEntry.SUFFIX_ROWS) >= 5);
+        assertTrue(getStat(StatsEntry.CURSOR_ROWS + StatsEntry.SUFFIX_BUCKET + 7) >= 1);
+
+        ContentValues disable = new ContentValues();
+        disable.put(StatsEntry.METRICS_ENABLED, false);
+        resolver.update(StatsEntry.CONTENT_URI, disable, null, null);
+        try {
+            assertEquals(0, getStat(StatsEntry.METRICS_ENABLED));
+            resolver.insert(ExampleEntry.CONTENT_URI, createDummyDataOnePerson("Katherine", 1));
+            assertEquals(3, getStat(StatsEntry.OPERATION_INSERT + StatsEntry.SUFFIX_ROWS));
+        } finally {
+            ContentValues enable = new ContentValues();
+            enable.put(StatsEntry.METRICS_ENABLED, true);
+            resolver.update(StatsEntry.CONTENT_URI, enable, null, null);
+        }
+    }
+
+    /**
+     * Tests that {@link SeedDataTask} fills an empty table, and leaves one with people in it
+     * alone.
+     */
+    public void testSeedData() {
+        ContentResolver resolver = mContext.getContentResolver();
+        assertEquals(2, SeedDataTask.seed(resolver));
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+
+        assertEquals(0, SeedDataTask.seed(resolver));
+        assertResultCount(ExampleEntry.CONTENT_URI, 2);
+    }
+
+    /**
+     * Tests that {@link ExampleProvider} returns only the requested columns, the default columns
+     * for a null projection, and rejects columns it doesn't know.
+     */
+    public void testProjection() {
+        Uri uri = insertDummyData(createDummyDataArray(1))[0];
+
+        Cursor cursor = mContext.getContentResolver().query(ExampleEntry.CONTENT_URI,
+                new String[] {ExampleEntry.NAME}, null, null, null);
+        assertEquals(1, cursor.getColumnCount());
+        assertEquals(ExampleEntry.NAME, cursor.getColumnName(0));
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(uri, null, null, null, null);
+        assertEquals(ExampleEntry.DEFAULT_PROJECTION, Arrays.asList(cursor.getColumnNames()));
+        cursor.close();
+
+        String[][] badProjections = new String[][] {
+                {ExampleEntry.NAME, "sqlite_version()"},
+                {"*"},
+        };
+        for (String[] projection : badProjections) {
+            try {
+                mContext.getContentResolver().query(ExampleEntry.CONTENT_URI, projection, null,
+                        null, null);
+                fail("Projection should have been rejected: " + Arrays.toString(projection));
+            } catch (IllegalArgumentException e) {
+                // The expected case.
+            }
+        }
+    }
+
+    /**
+     * Tests that {@link ExampleProvider} logs queries over the slow query threshold with their
+     * plans, and that the log can be cleared and turned off.
+     */
+    public void testSlowQueryLog() {
+        ContentResolver resolver = mContext.getContentResolver();
+        insertDummyData(createDummyDataArray(3));
+        resolver.delete(SlowQueryEntry.CONTENT_URI, null, null);
+
+        // The log is off by default
+        resolver.query(ExampleEntry.CONTENT_URI, null, null, null, null).close();
+        assertResultCount(SlowQueryEntry.CONTENT_URI, 0);
+
+        ContentValues threshold = new ContentValues();
+        threshold.put(SlowQueryEntry.THRESHOLD_MILLIS, 0);
+        resolver.update(SlowQueryEntry.CONTENT_URI, threshold, null, null);
+        try {
+            resolver.query(ExampleEntry.CONTENT_URI, null, ExampleEntry.NAME + " = ?",
+                    new String[] {"Person 1"}, null).close();
+
+            Cursor cursor = resolver.query(SlowQueryEntry.CONTENT_URI, null, null, null, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                String sql = cursor.getString(cursor.getColumnIndex(SlowQueryEntry.SQL));
+                assertTrue(sql, sql.contains(ExampleEntry.PATH_FRIENDS));
+                assertEquals("[Person 1]",
+                        cursor.getString(cursor.getColumnIndex(SlowQueryEntry.ARGS)));
+                assertEquals(1, cursor.getInt(cursor.getColumnIndex(SlowQueryEntry.ROWS)));
+                assertFalse(cursor.isNull(cursor.getColumnIndex(SlowQueryEntry.PLAN)));
+                assertTrue(cursor.getLong(
+                        cursor.getColumnIndex(SlowQueryEntry.DURATION_MICROS)) >= 0);
+            } finally {
+                cursor.close();
+            }
+
+            assertTrue(resolver.delete(SlowQueryEntry.CONTENT_URI, null, null) > 0);
+            assertResultCount(SlowQueryEntry.CONTENT_URI, 0);
+        } finally {
+            threshold.put(SlowQueryEntry.THRESHOLD_MILLIS, -1);
+            resolver.update(SlowQueryEntry.CONTENT_URI, threshold, null, null);
+        }
+    }
+
+    /**
+     * Tests that {@link ExampleProvider} sends a single notification for a URI which changes
+     * several times within one batch.
+     */
+    public void testBatchNotificationsCoalesced() throws Exception {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(ExampleEntry.CONTENT_URI)
+                .withValues(createDummyDataOnePerson("Sarah", 7))
+                .build());
+        for (int i = 0; i < 3; i++) {
+            operations.add(ContentProviderOperation.newUpdate(ExampleEntry.CONTENT_URI)
+                    .withValue(ExampleEntry.NUMBER_OF_FRIENDS, i)
+                    .build());
+        }
+
+        // Lets notifications from earlier writes go out before counting
+        Thread.sleep(200);
+        long sentBefore = getStat(StatsEntry.NOTIFICATIONS_SENT);
+        long suppressedBefore = getStat(StatsEntry.NOTIFICATIONS_SUPPRESSED);
+        mContext.getContentResolver().applyBatch(ExampleContract.CONTENT_AUTHORITY, operations);
+
+        // The insert is notified on the new person's URI and the change log's. The three updates
+        // are all on the table's URI, so only one of them is sent.
+        assertEquals(3, getStat(StatsEntry.NOTIFICATIONS_SENT) - sentBefore);
+        assertEquals(2, getStat(StatsEntry.NOTIFICATIONS_SUPPRESSED) - suppressedBefore);
+    }
+
+    /**
+     * Tests that {@link ExampleProvider} notifies changes to one person on the person's URI and
+     * the change log's, and changes to many people on the table's URI.
+     */
+    public void testRowNotifications() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Observers aren't told which URI changed
+            return;
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        HandlerThread thread = new HandlerThread("observer");
+        thread.start();
+        final List<Uri> changes = Collections.synchronizedList(new ArrayList<Uri>());
+        ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                changes.add(uri);
+            }
+        };
+        resolver.registerContentObserver(ExampleEntry.CONTENT_URI, true, observer);
+        try {
+            Uri rowUri = resolver.insert(ExampleEntry.CONTENT_URI,
+                    createDummyDataOnePerson("Sarah", 7));
+            assertEquals(Arrays.asList(rowUri, ChangeEntry.CONTENT_URI),
+                    awaitChanges(changes, 2));
+
+            ContentValues values = new ContentValues();
+            values.put(ExampleEntry.NUMBER_OF_FRIENDS, 8);
+            assertEquals(1, resolver.update(rowUri, values, null, null));
+            assertEquals(Arrays.asList(rowUri, ChangeEntry.CONTENT_URI),
+                    awaitChanges(changes, 2));
+
+            assertEquals(1, resolver.update(ExampleEntry.CONTENT_URI, values, null, null));
+            assertEquals(Arrays.asList(ExampleEntry.CONTENT_URI), awaitChanges(changes, 1));
+
+            // A soft delete of one person is still a change to that person only
+            assertEquals(1, resolver.delete(ExampleEntry.buildSoftDeleteUri(rowUri), null, null));
+            assertEquals(Arrays.asList(rowUri, ChangeEntry.CONTENT_URI),
+                    awaitChanges(changes, 2));
+        } finally {
+            resolver.unregisterContentObserver(observer);
+            thread.quit();
+        }
+    }
+
+    /**
+     * Waits for {@code count} notifications, then for any extra ones that shouldn't have been
+     * sent, and returns them.
+     */
+    private static List<Uri> awaitChanges(List<Uri> changes, int count)
+            throws InterruptedException {
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (changes.size() < count && SystemClock.uptimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        synchronized (changes) {
+            List<Uri> received = new ArrayList<Uri>(changes);
+            changes.clear();
+            return received;
+        }
+    }
+
+    /**
+     * Tests that {@link FriendListObserver} patches a changed person into its list without the
+     * whole list being loaded again.
+     */
+    public void testFriendListObserver() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Every change asks for a reload
+            return;
+        }
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.bulkInsert(ExampleEntry.CONTENT_URI, createDummyDataArray());
+        final List<Friend> friends = new ArrayList<Friend>();
+        Cursor cursor = resolver.query(ExampleEntry.CONTENT_URI, null, null, null, null);
+        while (cursor.moveToNext()) {
+            friends.add(Friend.fromCursor(cursor));
+        }
+        cursor.close();
+
+        final CountDownLatch changed = new CountDownLatch(1);
+        final List<Friend> patched = new ArrayList<Friend>();
+        final boolean[] reloaded = new boolean[1];
+        final FriendListObserver observer = new FriendListObserver(resolver,
+                FriendListObserver.BY_ID, new FriendListObserver.Listener() {
+            @Override
+            public void onFriendsChanged(List<Friend> list) {
+                patched.addAll(list);
+                changed.countDown();
+            }
+
+            @Override
+            public void onReloadNeeded() {
+                reloaded[0] = true;
+            }
+        });
+        // The list belongs to the main thread
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                observer.setFriends(friends);
+                observer.register();
+            }
+        });
+        Thread.sleep(100);
+
+        try {
+            Friend first = friends.get(0);
+            ContentValues values = new ContentValues();
+            values.put(ExampleEntry.NUMBER_OF_FRIENDS, first.getNumberOfFriends() + 1);
+            resolver.update(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, first.getId()),
+                    values, null, null);
+
+            assertTrue(changed.await(5, TimeUnit.SECONDS));
+            assertFalse(reloaded[0]);
+            assertEquals(friends.size(), patched.size());
+            assertEquals(new Friend(first.getId(), first.getName(),
+                    first.getNumberOfFriends() + 1), patched.get(0));
+            assertEquals(friends.subList(1, friends.size()),
+                    patched.subList(1, patched.size()));
+        } finally {
+            observer.unregister();
+        }
+    }
+
     /**
      * Tests {@link ExampleProvider}'s delete method by
      * deleting the last entry in the table.
@@ -360,6 +1392,17 @@ public class TestExampleProvider extends AndroidTestCase {
         return valuesArr;
     }
 
+    /**
+     * Helper method to create {@code count} rows of data with distinct names.
+     */
+    public ContentValues[] createDummyDataArray(int count) {
+        ContentValues[] valuesArr = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            valuesArr[i] = createDummyDataOnePerson("Person " + i, i);
+        }
+        return valuesArr;
+    }
+
     /**
      * Helper method to create data for rows in the database and insert to help perform
      * further tests.
@@ -397,6 +1440,25 @@ public class TestExampleProvider extends AndroidTestCase {
         assertResultCount(uri, null, null, null, expectedCount);
     }
 
+    /**
+     * Helper method to read one of the provider's counters from {@link StatsEntry#CONTENT_URI}.
+     */
+    private long getStat(String key) {
+        Cursor cursor = mContext.getContentResolver().query(StatsEntry.CONTENT_URI,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (key.equals(cursor.getString(0))) {
+                    return cursor.getLong(1);
+                }
+            }
+            fail("No statistic named " + key);
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /**
      * Helper method to test whether the object stored at the URI has the same values as the
      * ContentValues passed as a parameter.
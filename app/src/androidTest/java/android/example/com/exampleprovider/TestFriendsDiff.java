@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.example.com.exampleprovider.data.Friend;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link FriendsDiff}.
+ */
+public class TestFriendsDiff extends AndroidTestCase {
+
+    /**
+     * Tests that the same people give an empty diff.
+     */
+    public void testSamePeople() {
+        List<Friend> friends = createFriends(5);
+        FriendsDiff diff = FriendsDiff.compute(friends, new ArrayList<Friend>(friends));
+        assertTrue(diff.isEmpty());
+        assertFalse(diff.isStructural());
+    }
+
+    /**
+     * Tests that people whose columns changed are found at their positions in the new list.
+     */
+    public void testChangedPeople() {
+        List<Friend> before = createFriends(5);
+        List<Friend> after = new ArrayList<Friend>(before);
+        after.set(1, new Friend(2, "Person 2", 100));
+        after.set(4, new Friend(5, "Someone else", 5));
+
+        FriendsDiff diff = FriendsDiff.compute(before, after);
+        assertFalse(diff.isStructural());
+        assertEquals(2, diff.getChangedCount());
+        assertFalse(diff.isChanged(0));
+        assertTrue(diff.isChanged(1));
+        assertTrue(diff.isChanged(4));
+    }
+
+    /**
+     * Tests that inserted and removed people make the diff structural, and that changed people
+     * are still found after them.
+     */
+    public void testInsertedAndRemovedPeople() {
+        List<Friend> before = createFriends(5);
+        List<Friend> after = new ArrayList<Friend>(Arrays.asList(
+                new Friend(1, "Person 1", 1),
+                // 2 removed
+                new Friend(3, "Person 3", 30),
+                new Friend(4, "Person 4", 4),
+                new Friend(5, "Person 5", 5),
+                new Friend(6, "Person 6", 6)));
+
+        FriendsDiff diff = FriendsDiff.compute(before, after);
+        assertTrue(diff.isStructural());
+        assertEquals(1, diff.getInsertedCount());
+        assertEquals(1, diff.getRemovedCount());
+        assertEquals(1, diff.getChangedCount());
+        assertTrue(diff.isChanged(1));
+    }
+
+    /**
+     * Tests diffs with an empty list on either side.
+     */
+    public void testEmpty() {
+        List<Friend> empty = new ArrayList<Friend>();
+        assertEquals(3, FriendsDiff.compute(empty, createFriends(3)).getInsertedCount());
+        assertEquals(3, FriendsDiff.compute(createFriends(3), empty).getRemovedCount());
+        assertTrue(FriendsDiff.compute(empty, empty).isEmpty());
+    }
+
+    /**
+     * Creates people with IDs 1 to {@code count}, each with as many friends as their ID.
+     */
+    private static List<Friend> createFriends(int count) {
+        List<Friend> friends = new ArrayList<Friend>();
+        for (int i = 1; i <= count; i++) {
+            friends.add(new Friend(i, "Person " + i, i));
+        }
+        return friends;
+    }
+}
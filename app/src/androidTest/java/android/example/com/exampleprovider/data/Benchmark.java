@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * A small harness for timing an operation many times, in the spirit of JMH: it warms up, times
+ * every sample separately so that percentiles can be reported, and counts the objects allocated
+ * per operation on the calling thread.
+ */
+class Benchmark {
+    private static final String LOG_TAG = "Benchmark";
+
+    /**
+     * The code being measured. {@code i} counts up from 0 across warm up and measured runs.
+     */
+    interface Operation {
+        void run(int i);
+    }
+
+    /**
+     * What one benchmark measured.
+     */
+    static final class Result {
+        final String name;
+        final double opsPerSecond;
+        final long p50Nanos;
+        final long p90Nanos;
+        final long p99Nanos;
+        final double allocationsPerOp;
+
+        Result(String name, double opsPerSecond, long p50Nanos, long p90Nanos, long p99Nanos,
+               double allocationsPerOp) {
+            this.name = name;
+            this.opsPerSecond = opsPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p90Nanos = p90Nanos;
+            this.p99Nanos = p99Nanos;
+            this.allocationsPerOp = allocationsPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-40s %12.0f ops/s  p50 %9.1f us  p90 %9.1f us  " +
+                            "p99 %9.1f us  %8.1f allocs/op",
+                    name, opsPerSecond, p50Nanos / 1000.0, p90Nanos / 1000.0, p99Nanos / 1000.0,
+                    allocationsPerOp);
+        }
+    }
+
+    private Benchmark() {
+    }
+
+    /**
+     * Runs the operation {@code samples * opsPerSample} times after a warm up, and logs and
+     * returns the result.
+     *
+     * @param opsPerSample how many times the operation runs between two clock reads. Use more
+     *                     than one for operations so fast that reading the clock would dominate.
+     */
+    static Result measure(String name, int samples, int opsPerSample, Operation operation) {
+        int i = 0;
+        int warmUp = Math.max(1, samples / 10) * opsPerSample;
+        while (i < warmUp) {
+            operation.run(i++);
+        }
+
+        long[] sampleNanos = new long[samples];
+        long totalNanos = 0;
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int sample = 0; sample < samples; sample++) {
+            long start = System.nanoTime();
+            for (int op = 0; op < opsPerSample; op++) {
+                operation.run(i++);
+            }
+            long elapsed = System.nanoTime() - start;
+            sampleNanos[sample] = elapsed / opsPerSample;
+            totalNanos += elapsed;
+        }
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Arrays.sort(sampleNanos);
+        long ops = (long) samples * opsPerSample;
+        Result result = new Result(name,
+                ops * 1e9 / Math.max(1, totalNanos),
+                percentile(sampleNanos, 50),
+                percentile(sampleNanos, 90),
+                percentile(sampleNanos, 99),
+                (double) allocations / ops);
+        Log.i(LOG_TAG, result.toString());
+        return result;
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
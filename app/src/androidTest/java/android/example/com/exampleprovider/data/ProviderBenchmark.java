@@ -0,0 +1,367 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Benchmarks for the hot paths of {@link ExampleProvider}, run against tables of several sizes.
+ * Results are logged under the "Benchmark" tag as operations per second, latency percentiles and
+ * allocations per operation.
+ * <p>
+ * These are large tests, so they can be left out of a normal run with
+ * {@code -e size small} or run on their own with {@code -e size large}. The biggest table size
+ * takes several minutes to fill on a phone.
+ */
+@LargeTest
+public class ProviderBenchmark extends AndroidTestCase {
+
+    private static final int[] TABLE_SIZES = new int[] {1000, 100000, 1000000};
+
+    // Rows per bulk insert while filling the table
+    private static final int FILL_CHUNK = 10000;
+
+    // The most the provider's metrics may add to an operation's median latency, in percent
+    private static final double MAX_METRICS_OVERHEAD_PERCENT = 1.0;
+    private static final int OVERHEAD_ATTEMPTS = 3;
+
+    private ExampleProvider mProvider;
+    private final Random mRandom = new Random(42);
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        // Calls straight into the provider, so the numbers don't include the content resolver
+        mProvider = new ExampleProvider();
+        mProvider.attachInfo(mContext, null);
+        mProvider.delete(ExampleEntry.CONTENT_URI, null, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mProvider.delete(ExampleEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    /**
+     * Benchmarks reads and writes of single rows, full scans and bulk inserts at every table
+     * size.
+     */
+    public void testProviderOperations() {
+        for (int size : TABLE_SIZES) {
+            mProvider.delete(ExampleEntry.CONTENT_URI, null, null);
+            fillTable(size);
+            benchmarkTable(size);
+        }
+    }
+
+    /**
+     * Benchmarks the validation of inserted values, which shouldn't create any garbage.
+     */
+    public void testCheckInput() {
+        final ContentValues values = createPerson("Dan", 52);
+
+        Benchmark.Result result = Benchmark.measure("checkInput", 1000, 100,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        ExampleProvider.checkInput(values);
+                    }
+                });
+        assertEquals(0.0, result.allocationsPerOp);
+
+        final ContentValues[] rows = new ContentValues[1000];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = createPerson("Person " + i, i);
+        }
+        result = Benchmark.measure("checkInput " + rows.length + " rows", 200, 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        ExampleProvider.checkInput(rows);
+                    }
+                });
+        assertEquals(0.0, result.allocationsPerOp);
+    }
+
+    /**
+     * Compares reads and writes with the provider's metrics on and off, and checks that the
+     * metrics cost less than {@link #MAX_METRICS_OVERHEAD_PERCENT} of the median latency. Each
+     * comparison is tried a few times and the best kept, so a burst of noise on the device
+     * doesn't fail it. Also measures the cost of recording a single operation.
+     */
+    public void testMetricsOverhead() {
+        final int size = 1000;
+        fillTable(size);
+        final long firstId = getFirstId();
+
+        Benchmark.Operation queryById = new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                Uri uri = ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                        firstId + mRandom.nextInt(size));
+                Cursor cursor = mProvider.query(uri, null, null, null, null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+        };
+        Benchmark.Operation updateById = new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                ContentValues values = new ContentValues();
+                values.put(ExampleEntry.NUMBER_OF_FRIENDS, i);
+                mProvider.update(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                        firstId + mRandom.nextInt(size)), values, null, null);
+            }
+        };
+
+        double queryOverhead = measureOverhead("query by id", 5000, queryById);
+        double updateOverhead = measureOverhead("update by id", 1000, updateById);
+        assertTrue(String.format("Metrics cost %.2f%% of a query", queryOverhead),
+                queryOverhead < MAX_METRICS_OVERHEAD_PERCENT);
+        assertTrue(String.format("Metrics cost %.2f%% of an update", updateOverhead),
+                updateOverhead < MAX_METRICS_OVERHEAD_PERCENT);
+
+        final ProviderMetrics metrics = new ProviderMetrics();
+        Benchmark.Result record = Benchmark.measure("ProviderMetrics.record", 1000, 100,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        metrics.record(ProviderMetrics.QUERY, metrics.start(), 1);
+                    }
+                });
+        assertEquals(0.0, record.allocationsPerOp);
+    }
+
+    /**
+     * Compares changing many people one URI at a time, each in its own transaction, with
+     * changing them all through {@link ExampleEntry#BATCH_UPDATE_URI}.
+     */
+    public void testBatchUpdate() {
+        final int size = 10000;
+        final int batchSize = 1000;
+        fillTable(size);
+        final long firstId = getFirstId();
+
+        Benchmark.Result loop = Benchmark.measure("update " + batchSize + " by id", 5, 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        for (int row = 0; row < batchSize; row++) {
+                            ContentValues values = new ContentValues();
+                            values.put(ExampleEntry.NUMBER_OF_FRIENDS, i + row);
+                            mProvider.update(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                                    firstId + mRandom.nextInt(size)), values, null, null);
+                        }
+                    }
+                });
+        Benchmark.Result batch = Benchmark.measure("batch update " + batchSize, 20, 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        ContentValues[] rows = new ContentValues[batchSize];
+                        for (int row = 0; row < batchSize; row++) {
+                            rows[row] = new ContentValues();
+                            rows[row].put(ExampleEntry._ID, firstId + mRandom.nextInt(size));
+                            rows[row].put(ExampleEntry.NUMBER_OF_FRIENDS, i + row);
+                        }
+                        assertEquals(batchSize,
+                                mProvider.bulkInsert(ExampleEntry.BATCH_UPDATE_URI, rows));
+                    }
+                });
+        Log.i("Benchmark", String.format("batch update is %.1fx faster than updating by id",
+                batch.opsPerSecond / loop.opsPerSecond));
+    }
+
+    private void setMetricsEnabled(boolean enabled) {
+        ContentValues values = new ContentValues();
+        values.put(ExampleContract.StatsEntry.METRICS_ENABLED, enabled);
+        mProvider.update(ExampleContract.StatsEntry.CONTENT_URI, values, null, null);
+    }
+
+    /**
+     * Measures the operation with the metrics off and on, up to {@link #OVERHEAD_ATTEMPTS}
+     * times, and returns the smallest overhead seen, as a percentage of the median latency.
+     */
+    private double measureOverhead(String name, int samples, Benchmark.Operation operation) {
+        double best = Double.MAX_VALUE;
+        for (int attempt = 0; attempt < OVERHEAD_ATTEMPTS; attempt++) {
+            setMetricsEnabled(false);
+            Benchmark.Result off = Benchmark.measure(name + ", metrics off", samples, 1,
+                    operation);
+            setMetricsEnabled(true);
+            Benchmark.Result on = Benchmark.measure(name + ", metrics on", samples, 1,
+                    operation);
+            double overhead = 100.0 * (on.p50Nanos - off.p50Nanos) / off.p50Nanos;
+            Log.i("Benchmark", String.format("%s: metrics cost %.2f%% of the median latency",
+                    name, overhead));
+            best = Math.min(best, overhead);
+            if (best < MAX_METRICS_OVERHEAD_PERCENT) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Benchmarks matching URIs to the provider's URI codes.
+     */
+    public void testUriMatcher() {
+        final Uri[] uris = new Uri[] {
+                ExampleEntry.CONTENT_URI,
+                ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, 12345),
+                ExampleEntry.buildPageByIdUri(12345, 50)
+        };
+
+        Benchmark.measure("UriMatcher.match", 1000, 100, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                ExampleProvider.sUriMatcher.match(uris[i % uris.length]);
+            }
+        });
+    }
+
+    private void benchmarkTable(final int size) {
+        final long firstId = getFirstId();
+
+        Benchmark.measure("query by id, " + size + " rows", 2000, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                Uri uri = ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                        firstId + mRandom.nextInt(size));
+                Cursor cursor = mProvider.query(uri, null, null, null, null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+        });
+
+        // Searches by the number in "Person <number>", which matches a handful of people
+        Benchmark.measure("search, " + size + " rows", 500, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                Uri uri = ExampleEntry.buildSearchUri(String.valueOf(mRandom.nextInt(size)));
+                Cursor cursor = mProvider.query(uri, null, null, null, null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+        });
+
+        final String[] projection = new String[] {
+                ExampleEntry._ID, ExampleEntry.NAME, ExampleEntry.NUMBER_OF_FRIENDS};
+        Benchmark.measure("full scan, " + size + " rows", Math.max(3, 100000 / size), 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        Cursor cursor = mProvider.query(ExampleEntry.CONTENT_URI, projection,
+                                null, null, null);
+                        while (cursor.moveToNext()) {
+                            cursor.getLong(0);
+                            cursor.getString(1);
+                            cursor.getInt(2);
+                        }
+                        cursor.close();
+                    }
+                });
+
+        Benchmark.measure("update by id, " + size + " rows", 500, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                ContentValues values = new ContentValues();
+                values.put(ExampleEntry.NUMBER_OF_FRIENDS, i);
+                mProvider.update(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                        firstId + mRandom.nextInt(size)), values, null, null);
+            }
+        });
+
+        final int inserts = 500;
+        // Room for the warm up as well as the measured inserts
+        final Uri[] inserted = new Uri[inserts + inserts / 10];
+        Benchmark.measure("insert, " + size + " rows", inserts, 1, new Benchmark.Operation() {
+            @Override
+            public void run(int i) {
+                inserted[i] = mProvider.insert(ExampleEntry.CONTENT_URI,
+                        createPerson("Inserted " + i, i));
+            }
+        });
+
+        Benchmark.measure("delete by id, " + size + " rows", inserts, 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        mProvider.delete(inserted[i], null, null);
+                    }
+                });
+
+        final int bulkSize = 1000;
+        final int bulkSamples = 20;
+        final ContentValues[][] batches = new ContentValues[bulkSamples + bulkSamples / 10][];
+        for (int i = 0; i < batches.length; i++) {
+            batches[i] = new ContentValues[bulkSize];
+            for (int j = 0; j < bulkSize; j++) {
+                batches[i][j] = createPerson("Bulk " + i + " " + j, j);
+            }
+        }
+        Benchmark.measure("bulkInsert " + bulkSize + ", " + size + " rows", bulkSamples, 1,
+                new Benchmark.Operation() {
+                    @Override
+                    public void run(int i) {
+                        mProvider.bulkInsert(ExampleEntry.CONTENT_URI, batches[i]);
+                    }
+                });
+    }
+
+    /**
+     * Fills the table with {@code size} people.
+     */
+    private void fillTable(int size) {
+        Uri uri = ExampleEntry.buildBulkInsertUri(FILL_CHUNK);
+        for (int start = 0; start < size; start += FILL_CHUNK) {
+            int count = Math.min(FILL_CHUNK, size - start);
+            ContentValues[] values = new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = createPerson("Person " + (start + i), mRandom.nextInt(1000));
+            }
+            mProvider.bulkInsert(uri, values);
+        }
+    }
+
+    private long getFirstId() {
+        Cursor cursor = mProvider.query(ExampleEntry.buildPageByIdUri(1),
+                new String[] {ExampleEntry._ID}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues createPerson(String name, int friends) {
+        ContentValues values = new ContentValues();
+        values.put(ExampleEntry.NAME, name);
+        values.put(ExampleEntry.NUMBER_OF_FRIENDS, friends);
+        return values;
+    }
+}
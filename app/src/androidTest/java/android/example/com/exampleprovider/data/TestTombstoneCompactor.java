@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+/**
+ * Tests for {@link TombstoneCompactor}, run straight against a database of its own rather than
+ * waiting for the provider to schedule it.
+ */
+public class TestTombstoneCompactor extends AndroidTestCase {
+
+    private static final String TEST_DATABASE = "compactor_test.db";
+
+    private ExampleDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(TEST_DATABASE);
+        mDbHelper = new ExampleDbHelper(mContext, TEST_DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(TEST_DATABASE);
+        super.tearDown();
+    }
+
+    /**
+     * Tests that every soft deleted person is removed, across several batches, and that nobody
+     * else is.
+     */
+    public void testPurge() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertPeople(db, 500);
+        db.execSQL("UPDATE " + ExampleEntry.PATH_FRIENDS + " SET " +
+                ExampleDbHelper.COLUMN_DELETED + " = 1 WHERE " +
+                ExampleEntry.NUMBER_OF_FRIENDS + " % 5 != 0");
+
+        TombstoneCompactor compactor = new TombstoneCompactor(db, 100, 64, 0);
+        assertEquals(400, compactor.purge());
+        assertEquals(100, DatabaseUtils.queryNumEntries(db, ExampleEntry.PATH_FRIENDS));
+        assertEquals(0, compactor.purge());
+    }
+
+    /**
+     * Tests that a database created from Jelly Bean on gives its free pages back without a full
+     * VACUUM.
+     */
+    public void testVacuum() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // New databases only get auto-vacuum from onConfigure
+            return;
+        }
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        assertEquals(ExampleDbHelper.AUTO_VACUUM_INCREMENTAL,
+                DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null));
+
+        insertPeople(db, 2000);
+        db.execSQL("UPDATE " + ExampleEntry.PATH_FRIENDS + " SET " +
+                ExampleDbHelper.COLUMN_DELETED + " = 1");
+        TombstoneCompactor compactor = new TombstoneCompactor(db, 500, 64, 0);
+        assertEquals(2000, compactor.purge());
+        compactor.vacuum();
+        assertEquals(0, DatabaseUtils.longForQuery(db, "PRAGMA freelist_count", null));
+    }
+
+    private static void insertPeople(SQLiteDatabase db, int count) {
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                db.execSQL("INSERT INTO " + ExampleEntry.PATH_FRIENDS + " (" +
+                        ExampleEntry.NAME + ", " + ExampleEntry.NUMBER_OF_FRIENDS +
+                        ") VALUES (?, ?)", new Object[] {"Person " + i, i});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
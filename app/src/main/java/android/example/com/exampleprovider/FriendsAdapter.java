@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.content.Context;
+import android.example.com.exampleprovider.data.Friend;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shows the people from a {@link FriendsLoader} in a list, each as their name and number of
+ * friends. The IDs of the people are the adapter's stable IDs.
+ * <p>
+ * When a new snapshot only changes some of the people already shown, just the rows on screen for
+ * those people are bound again. Otherwise the list is told its data changed, which binds the rows
+ * on screen again but, thanks to the stable IDs, keeps what is checked or focused.
+ */
+class FriendsAdapter extends BaseAdapter {
+
+    private final LayoutInflater mInflater;
+    private List<Friend> mFriends = Collections.emptyList();
+
+    FriendsAdapter(Context context) {
+        mInflater = LayoutInflater.from(context);
+    }
+
+    /**
+     * Shows the people in the snapshot. Must be called on the main thread.
+     *
+     * @param listView the view this adapter is set on, whose rows are bound again.
+     */
+    void swapSnapshot(FriendsLoader.Snapshot snapshot, AdapterView<?> listView) {
+        List<Friend> shown = mFriends;
+        mFriends = snapshot.friends;
+
+        if (snapshot.previous != shown || snapshot.diff.isStructural()) {
+            // The diff isn't against what is on screen, or people have moved
+            notifyDataSetChanged();
+            return;
+        }
+        if (snapshot.diff.isEmpty()) {
+            return;
+        }
+
+        // Only the same people with new values, so the rows off screen will be bound when they
+        // scroll on, and the rows on screen can be bound again where they are
+        int first = listView.getFirstVisiblePosition();
+        for (int i = 0; i < listView.getChildCount(); i++) {
+            int position = first + i;
+            if (position < mFriends.size() && snapshot.diff.isChanged(position)) {
+                bindView(listView.getChildAt(i), mFriends.get(position));
+            }
+        }
+    }
+
+    /**
+     * Stops showing any people, for when the loader is reset.
+     */
+    void clear() {
+        mFriends = Collections.emptyList();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getCount() {
+        return mFriends.size();
+    }
+
+    @Override
+    public Friend getItem(int position) {
+        return mFriends.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mFriends.get(position).getId();
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = mInflater.inflate(android.R.layout.two_line_list_item, parent, false);
+            view.setTag(new ViewHolder(view));
+        }
+        bindView(view, mFriends.get(position));
+        return view;
+    }
+
+    private static void bindView(View view, Friend friend) {
+        ViewHolder holder = (ViewHolder) view.getTag();
+        holder.name.setText(friend.getName());
+        holder.numberOfFriends.setText(String.valueOf(friend.getNumberOfFriends()));
+    }
+
+    /**
+     * Saves looking the row's text views up each time it is bound.
+     */
+    private static final class ViewHolder {
+        final TextView name;
+        final TextView numberOfFriends;
+
+        ViewHolder(View view) {
+            name = (TextView) view.findViewById(android.R.id.text1);
+            numberOfFriends = (TextView) view.findViewById(android.R.id.text2);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.example.com.exampleprovider.data.Friend;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * What changed between two lists of people, both sorted by ID. People are matched up by their
+ * IDs, so working it out takes one pass over both lists rather than comparing every pair.
+ */
+final class FriendsDiff {
+
+    private final int mInserted;
+    private final int mRemoved;
+    // Positions in the newer list of people who are in both lists, but whose columns changed.
+    // Sorted, and only the first mChangedCount are used.
+    private final int[] mChanged;
+    private final int mChangedCount;
+
+    private FriendsDiff(int inserted, int removed, int[] changed, int changedCount) {
+        mInserted = inserted;
+        mRemoved = removed;
+        mChanged = changed;
+        mChangedCount = changedCount;
+    }
+
+    /**
+     * Compares two lists of people sorted by ascending ID.
+     */
+    static FriendsDiff compute(List<Friend> before, List<Friend> after) {
+        int inserted = 0;
+        int removed = 0;
+        int[] changed = new int[16];
+        int changedCount = 0;
+
+        int i = 0;
+        int j = 0;
+        while (i < before.size() && j < after.size()) {
+            Friend old = before.get(i);
+            Friend current = after.get(j);
+            if (old.getId() < current.getId()) {
+                removed++;
+                i++;
+            } else if (old.getId() > current.getId()) {
+                inserted++;
+                j++;
+            } else {
+                if (!old.equals(current)) {
+                    if (changedCount == changed.length) {
+                        changed = Arrays.copyOf(changed, changedCount * 2);
+                    }
+                    changed[changedCount++] = j;
+                }
+                i++;
+                j++;
+            }
+        }
+        removed += before.size() - i;
+        inserted += after.size() - j;
+        return new FriendsDiff(inserted, removed, changed, changedCount);
+    }
+
+    /**
+     * Whether people were added or taken away, which moves the people after them to new
+     * positions.
+     */
+    boolean isStructural() {
+        return mInserted != 0 || mRemoved != 0;
+    }
+
+    boolean isEmpty() {
+        return !isStructural() && mChangedCount == 0;
+    }
+
+    /**
+     * Whether the person at {@code position} in the newer list has changed columns. People who
+     * were inserted don't count.
+     */
+    boolean isChanged(int position) {
+        return Arrays.binarySearch(mChanged, 0, mChangedCount, position) >= 0;
+    }
+
+    int getChangedCount() {
+        return mChangedCount;
+    }
+
+    int getInsertedCount() {
+        return mInserted;
+    }
+
+    int getRemovedCount() {
+        return mRemoved;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d inserted, %d removed, %d changed", mInserted, mRemoved,
+                mChangedCount);
+    }
+}
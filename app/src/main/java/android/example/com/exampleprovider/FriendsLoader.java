@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.example.com.exampleprovider.data.Friend;
+import android.example.com.exampleprovider.data.FriendListObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.content.AsyncTaskLoader;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads every person into memory, sorted by ID, and works out what changed since the last load
+ * on the loader's background thread. The main thread then only has to apply the changes.
+ * <p>
+ * The provider notifies a change to one person on the person's own Uri. While only a few people
+ * have changed since the last load, just those people are read again, one at a time from the
+ * provider's row cache, and patched into a copy of the last list. Otherwise the whole table is
+ * read again.
+ * <p>
+ * The whole table is held in memory, as one {@link Friend} per person. On a phone that is about
+ * a hundred bytes a person with short names, so around 10MB for 100,000 people; see
+ * {@code FrameTimeBenchmark#testSnapshotMemory}. A patched snapshot shares the {@link Friend}s of
+ * the one before, so it only adds a reference per person and the people who changed. Showing
+ * more people than that calls for the provider's paged Uris instead.
+ */
+class FriendsLoader extends AsyncTaskLoader<FriendsLoader.Snapshot> {
+    private static final String LOG_TAG = FriendsLoader.class.getSimpleName();
+
+    // The columns each Friend is made from
+    private static final String[] PROJECTION = new String[] {
+            ExampleEntry._ID,
+            ExampleEntry.NAME,
+            ExampleEntry.NUMBER_OF_FRIENDS
+    };
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_NUMBER_OF_FRIENDS = 2;
+
+    // The diff and the patching both rely on the people being in ID order
+    private static final String SORT_ORDER = ExampleEntry._ID + " ASC";
+
+    // When more people than this changed, reading the whole table is quicker than reading each
+    // of them
+    private static final int MAX_PATCHED_ROWS = 100;
+
+    // Under continuous writes, loads at most this often so the main thread has time to draw
+    private static final long UPDATE_THROTTLE_MILLIS = 100;
+
+    /**
+     * Everyone in the table at the time of one load, and how they differ from the last load.
+     */
+    static final class Snapshot {
+        /**
+         * Every person, sorted by ID. It may only be read.
+         */
+        final List<Friend> friends;
+        /**
+         * The {@link #friends} of the load this one was compared with, or null for the first.
+         */
+        final List<Friend> previous;
+        final FriendsDiff diff;
+
+        Snapshot(List<Friend> friends, List<Friend> previous, FriendsDiff diff) {
+            this.friends = friends;
+            this.previous = previous;
+            this.diff = diff;
+        }
+    }
+
+    private final ContentObserver mObserver;
+    private boolean mObserving;
+
+    // The IDs of the people changed since the last load started, or null if every person has to
+    // be read again. Guarded by mLock, since the set itself is replaced.
+    private final Object mLock = new Object();
+    private Set<Long> mChangedIds;
+
+    // The last snapshot delivered, which the next load is compared with
+    private volatile Snapshot mSnapshot;
+
+    FriendsLoader(Context context) {
+        super(context);
+        setUpdateThrottle(UPDATE_THROTTLE_MILLIS);
+        // Changes are delivered on the main thread, where the loader has to be told about them
+        mObserver = new ContentObserver(new Handler()) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // Before Jelly Bean there is no Uri to say what changed
+                markAllChanged();
+                onContentChanged();
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                long id = FriendListObserver.getChangedId(uri);
+                if (id == FriendListObserver.CHANGED_NONE) {
+                    return;
+                } else if (id == FriendListObserver.CHANGED_ALL) {
+                    markAllChanged();
+                } else {
+                    markChanged(id);
+                }
+                onContentChanged();
+            }
+        };
+    }
+
+    private void markChanged(long id) {
+        synchronized (mLock) {
+            if (mChangedIds == null) return;
+            mChangedIds.add(id);
+            if (mChangedIds.size() > MAX_PATCHED_ROWS) {
+                mChangedIds = null;
+            }
+        }
+    }
+
+    private void markAllChanged() {
+        synchronized (mLock) {
+            mChangedIds = null;
+        }
+    }
+
+    /**
+     * Returns the people changed since the last call, or null if every person has to be read.
+     */
+    private Set<Long> takeChangedIds() {
+        synchronized (mLock) {
+            Set<Long> changed = mChangedIds;
+            mChangedIds = new HashSet<Long>();
+            return changed;
+        }
+    }
+
+    @Override
+    public Snapshot loadInBackground() {
+        Snapshot last = mSnapshot;
+        Set<Long> changed = takeChangedIds();
+        List<Friend> previous = last == null ? null : last.friends;
+
+        List<Friend> friends;
+        if (previous == null || changed == null) {
+            friends = readAll();
+        } else {
+            friends = patch(previous, changed);
+        }
+        if (friends == null) {
+            // Keeps what was loaded last, and reads everyone again on the next change
+            Log.w(LOG_TAG, "Couldn't read the people");
+            markAllChanged();
+            friends = previous == null ? new ArrayList<Friend>() : previous;
+        }
+        List<Friend> readOnly = Collections.unmodifiableList(friends);
+        FriendsDiff diff = FriendsDiff.compute(
+                previous == null ? Collections.<Friend>emptyList() : previous, readOnly);
+        return new Snapshot(readOnly, previous, diff);
+    }
+
+    /**
+     * Reads every person, or returns null if the provider couldn't be read.
+     */
+    private List<Friend> readAll() {
+        Cursor cursor = getContext().getContentResolver().query(ExampleEntry.CONTENT_URI,
+                PROJECTION, null, null, SORT_ORDER);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            List<Friend> friends = new ArrayList<Friend>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                friends.add(readFriend(cursor));
+            }
+            return friends;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Reads the people with the given IDs again and puts them into a copy of {@code previous}.
+     * People who can't be read any more have been deleted, and are left out. Returns null if the
+     * provider couldn't be read.
+     */
+    private List<Friend> patch(List<Friend> previous, Set<Long> ids) {
+        List<Friend> friends = new ArrayList<Friend>(previous);
+        ContentResolver resolver = getContext().getContentResolver();
+        for (Long id : ids) {
+            // A person's own Uri is answered from the row cache. A query for a set of IDs would
+            // be a new entry in the query result cache each time, and push out the ones in use.
+            Cursor cursor = resolver.query(
+                    ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id), PROJECTION,
+                    null, null, null);
+            if (cursor == null) {
+                return null;
+            }
+            Friend friend = null;
+            try {
+                if (cursor.moveToFirst()) {
+                    friend = readFriend(cursor);
+                }
+            } finally {
+                cursor.close();
+            }
+            FriendListObserver.replaceFriend(friends, id, friend, FriendListObserver.BY_ID);
+        }
+        return friends;
+    }
+
+    private static Friend readFriend(Cursor cursor) {
+        return new Friend(cursor.getLong(COLUMN_ID), cursor.getString(COLUMN_NAME),
+                cursor.getInt(COLUMN_NUMBER_OF_FRIENDS));
+    }
+
+    @Override
+    public void deliverResult(Snapshot snapshot) {
+        mSnapshot = snapshot;
+        super.deliverResult(snapshot);
+    }
+
+    @Override
+    public void onCanceled(Snapshot snapshot) {
+        // The changes this load took are lost with it
+        markAllChanged();
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            getContext().getContentResolver().registerContentObserver(
+                    ExampleEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        if (mSnapshot != null) {
+            deliverResult(mSnapshot);
+        }
+        if (takeContentChanged() || mSnapshot == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        mSnapshot = null;
+        markAllChanged();
+    }
+}
@@ -15,16 +15,13 @@
  */
 package android.example.com.exampleprovider;
 
-import android.content.ContentValues;
-import android.database.Cursor;
-import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
 import android.example.com.exampleprovider.data.ExampleProvider;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
-import android.support.v4.widget.SimpleCursorAdapter;
 import android.support.v7.app.ActionBarActivity;
+import android.util.Log;
 import android.widget.ListView;
 
 /**
@@ -32,20 +29,17 @@ import android.widget.ListView;
  * which displays the contents of the database accessed through the
  * {@link ExampleProvider} class.
  */
-public class MainActivity extends ActionBarActivity implements LoaderCallbacks<Cursor> {
-    private ListView mListView;
-    private SimpleCursorAdapter mAdapter;
+public class MainActivity extends ActionBarActivity
+        implements LoaderCallbacks<FriendsLoader.Snapshot>, SeedDataTask.Listener {
+    private static final String LOG_TAG = MainActivity.class.getSimpleName();
 
-    //For the SimpleCursorAdapter to match the in the friends database columns to layout items
-    private static final String[] COLUMNS_TO_BE_BOUND = new String[] {
-            ExampleEntry.NAME,
-            ExampleEntry.NUMBER_OF_FRIENDS
-    };
+    private ListView mListView;
+    private FriendsAdapter mAdapter;
+    private SeedDataTask mSeedTask;
 
-    private static final int[] LAYOUT_ITEMS_TO_FILL = new int[] {
-            android.R.id.text1,
-            android.R.id.text2
-    };
+    // When onCreate was called, used to log how long the list took to show up
+    private long mCreateTime;
+    private boolean mFirstLoadLogged;
 
     // Identifies a particular Loader being used in this component.
     private static final int CURSOR_LOADER_ID = 0;
@@ -53,16 +47,17 @@ public class MainActivity extends ActionBarActivity implements LoaderCallbacks<C
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mCreateTime = SystemClock.uptimeMillis();
         setContentView(R.layout.activity_main);
 
-        insertData();
+        // The database is seeded in the background, and the loader is started straight away
+        // rather than waiting for it. After a configuration change it has already been seeded.
+        if (savedInstanceState == null) {
+            mSeedTask = new SeedDataTask(getContentResolver(), this);
+            mSeedTask.execute();
+        }
 
-        mAdapter = new SimpleCursorAdapter(this,
-                android.R.layout.two_line_list_item,
-                null,
-                COLUMNS_TO_BE_BOUND,
-                LAYOUT_ITEMS_TO_FILL,
-                0);
+        mAdapter = new FriendsAdapter(this);
         mListView = (ListView) findViewById(R.id.main_list_view);
         mListView.setAdapter(mAdapter);
 
@@ -70,64 +65,42 @@ public class MainActivity extends ActionBarActivity implements LoaderCallbacks<C
         getSupportLoaderManager().initLoader(CURSOR_LOADER_ID, null, this);
     }
 
-    /**
-     * Inserts dummy data into the friends database via
-     * {@link ExampleProvider#bulkInsert(android.net.Uri, android.content.ContentValues[])}
-     * To keep the code simple for this toy app we are inserting the data here.
-     * Normally this should be done on a separate thread, as we do in Sunshine with AsyncTask.
-     */
-    private void insertData() {
-        Cursor cursor = getContentResolver().query(ExampleEntry.CONTENT_URI,
-                null, null, null, null);
-        try {
-            if (cursor.getCount() == 0) {
-
-                String nameOne = "Dan";
-                String nameTwo = "Katherine";
-                int friendsOne = 52;
-                int friendsTwo = 598;
-
-                ContentValues[] values = new ContentValues[2];
-                values[0] = new ContentValues();
-                values[0].put(ExampleEntry.NAME, nameOne);
-                values[0].put(ExampleEntry.NUMBER_OF_FRIENDS, friendsOne);
-
-                values[1] = new ContentValues();
-                values[1].put(ExampleEntry.NAME, nameTwo);
-                values[1].put(ExampleEntry.NUMBER_OF_FRIENDS, friendsTwo);
-
-                getContentResolver().bulkInsert(ExampleEntry.CONTENT_URI,values);
-            }
-        } finally {
-            // If there is a problem reading from the cursor, we still try to close it to avoid
-            // memory leaks from a lingering open cursor.
-            cursor.close();
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (mSeedTask != null) {
+            mSeedTask.detach();
         }
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        return new CursorLoader(
-                this,
-                ExampleEntry.CONTENT_URI,
-                null,
-                null,
-                null,
-                null
-        );
+    public void onSeeded(int inserted) {
+        Log.d(LOG_TAG, String.format("Data ready %d ms after onCreate, %d people added",
+                SystemClock.uptimeMillis() - mCreateTime, inserted));
+    }
+
+    @Override
+    public Loader<FriendsLoader.Snapshot> onCreateLoader(int i, Bundle bundle) {
+        return new FriendsLoader(this);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        // Moves the query results into the adapter, causing the
-        // ListView fronting this adapter to re-display
-        mAdapter.changeCursor(cursor);
+    public void onLoadFinished(Loader<FriendsLoader.Snapshot> loader,
+                               FriendsLoader.Snapshot snapshot) {
+        // Moves the people into the adapter. The loader has already worked out what changed, so
+        // the ListView only binds again the rows that need it.
+        mAdapter.swapSnapshot(snapshot, mListView);
+
+        if (!mFirstLoadLogged) {
+            mFirstLoadLogged = true;
+            Log.d(LOG_TAG, String.format("First %d people loaded %d ms after onCreate",
+                    snapshot.friends.size(), SystemClock.uptimeMillis() - mCreateTime));
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Clears out the adapter's reference to the Cursor.
-        // This prevents memory leaks.
-        mAdapter.changeCursor(null);
+    public void onLoaderReset(Loader<FriendsLoader.Snapshot> loader) {
+        // Drops the adapter's reference to the people, which the loader no longer owns.
+        mAdapter.clear();
     }
 }
\ No newline at end of file
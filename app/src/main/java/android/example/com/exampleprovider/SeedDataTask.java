@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Fills the friends table with the example people the first time the app runs. The work is done
+ * on a background thread so that opening, or creating, the database doesn't hold up the first
+ * frame. The list's loader can start at the same time: the insert notifies it when the people
+ * are there.
+ */
+class SeedDataTask extends AsyncTask<Void, Void, Integer> {
+    private static final String LOG_TAG = SeedDataTask.class.getSimpleName();
+
+    /**
+     * Told on the main thread when seeding is finished.
+     */
+    interface Listener {
+        /**
+         * @param inserted the number of people inserted, 0 if the table already had people.
+         */
+        void onSeeded(int inserted);
+    }
+
+    private final ContentResolver mResolver;
+    private Listener mListener;
+
+    SeedDataTask(ContentResolver resolver, Listener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Stops the listener from being told when seeding finishes, for example because the activity
+     * holding it was destroyed. Seeding itself carries on.
+     */
+    void detach() {
+        mListener = null;
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        long start = SystemClock.uptimeMillis();
+        int inserted = seed(mResolver);
+        Log.d(LOG_TAG, String.format("Seeded %d people in %d ms", inserted,
+                SystemClock.uptimeMillis() - start));
+        return inserted;
+    }
+
+    @Override
+    protected void onPostExecute(Integer inserted) {
+        if (mListener != null) {
+            mListener.onSeeded(inserted);
+        }
+    }
+
+    /**
+     * Inserts the example people if the friends table is empty. Whether it is empty is checked
+     * by asking for a one row page of IDs, which costs the same however many people there are.
+     * {@link Cursor#getCount()} on the whole table would read every row.
+     *
+     * @return the number of people inserted.
+     */
+    static int seed(ContentResolver resolver) {
+        Cursor cursor = resolver.query(ExampleEntry.buildPageByIdUri(1),
+                new String[] {ExampleEntry._ID}, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return 0;
+            }
+        } finally {
+            // If there is a problem reading from the cursor, we still try to close it to avoid
+            // memory leaks from a lingering open cursor.
+            cursor.close();
+        }
+
+        String nameOne = "Dan";
+        String nameTwo = "Katherine";
+        int friendsOne = 52;
+        int friendsTwo = 598;
+
+        ContentValues[] values = new ContentValues[2];
+        values[0] = new ContentValues();
+        values[0].put(ExampleEntry.NAME, nameOne);
+        values[0].put(ExampleEntry.NUMBER_OF_FRIENDS, friendsOne);
+
+        values[1] = new ContentValues();
+        values[1].put(ExampleEntry.NAME, nameTwo);
+        values[1].put(ExampleEntry.NUMBER_OF_FRIENDS, friendsTwo);
+
+        return resolver.bulkInsert(ExampleEntry.CONTENT_URI, values);
+    }
+}
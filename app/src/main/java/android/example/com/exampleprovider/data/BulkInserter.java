@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentValues;
+import android.provider.BaseColumns;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inserts many rows into a table without going through
+ * {@link SQLiteDatabase#insert(String, String, ContentValues)} for each one.
+ * <p>
+ * {@code SQLiteDatabase.insert} builds and compiles a new INSERT statement on every call. Here
+ * one {@link SQLiteStatement} is compiled per column shape (the set of keys in the
+ * {@link ContentValues}) and the values are bound straight into it. Rows are committed in chunks
+ * of {@code chunkSize}, and the throughput of every chunk is logged.
+ * <p>
+ * Rows which clash with an existing row on a unique key can be skipped, replace the existing row,
+ * or be merged into it (see {@link #CONFLICT_IGNORE}, {@link #CONFLICT_REPLACE} and
+ * {@link #CONFLICT_MERGE}). Either way it is still a single statement per row.
+ * <p>
+ * An instance is meant to be used for a single bulk insert and then thrown away.
+ */
+class BulkInserter {
+    private static final String LOG_TAG = BulkInserter.class.getSimpleName();
+
+    /**
+     * Rows that break a constraint are skipped.
+     */
+    static final int CONFLICT_NONE = 0;
+
+    /**
+     * Rows that clash with an existing row on the key column are skipped without a warning.
+     */
+    static final int CONFLICT_IGNORE = 1;
+
+    /**
+     * Rows that clash with an existing row on the key column replace it, keeping its row ID.
+     */
+    static final int CONFLICT_REPLACE = 2;
+
+    /**
+     * Like {@link #CONFLICT_REPLACE}, but the merge column keeps the larger of the old and new
+     * values, and keeps the old value if the row doesn't have one.
+     */
+    static final int CONFLICT_MERGE = 3;
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final int mChunkSize;
+    private final int mConflict;
+    private final String mKeyColumn;
+    private final String mMergeColumn;
+
+    // Almost every bulk insert uses a single shape, so a short list beats a map here.
+    private final List<CompiledInsert> mStatements = new ArrayList<CompiledInsert>();
+    private CompiledInsert mLastUsed;
+
+    // Progress through the current chunk
+    private int mRowsInChunk;
+    private long mChunkStartNanos;
+
+    private ProviderMetrics mMetrics;
+    private String mExistingRowCondition;
+
+    BulkInserter(SQLiteDatabase db, String table, int chunkSize) {
+        this(db, table, chunkSize, CONFLICT_NONE, null, null);
+    }
+
+    /**
+     * @param conflict    what to do with rows that clash with an existing row, one of the
+     *                    {@code CONFLICT_} constants.
+     * @param keyColumn   the unique column used to find the existing row.
+     * @param mergeColumn the column that keeps the larger value for {@link #CONFLICT_MERGE}.
+     */
+    BulkInserter(SQLiteDatabase db, String table, int chunkSize, int conflict, String keyColumn,
+                 String mergeColumn) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        if (conflict != CONFLICT_NONE && conflict != CONFLICT_IGNORE && keyColumn == null) {
+            throw new IllegalArgumentException("Replacing rows needs a key column");
+        }
+        mDb = db;
+        mTable = table;
+        mChunkSize = chunkSize;
+        mConflict = conflict;
+        mKeyColumn = keyColumn;
+        mMergeColumn = mergeColumn;
+    }
+
+    /**
+     * Records how long each chunk's transaction takes.
+     */
+    void setMetrics(ProviderMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Only treats rows that also match the condition as existing rows to replace or merge into.
+     * Must be called before the first row is added.
+     */
+    void setExistingRowCondition(String condition) {
+        mExistingRowCondition = condition;
+    }
+
+    /**
+     * Inserts all of the values, committing every {@code chunkSize} rows.
+     *
+     * @return the number of rows that were inserted or replaced. Rows that break a constraint are
+     * skipped, just like {@link SQLiteDatabase#insert} returns -1 for them.
+     */
+    int insert(ContentValues[] values) {
+        int numberInserted = 0;
+        boolean successful = false;
+
+        begin();
+        try {
+            for (ContentValues value : values) {
+                if (add(value)) {
+                    numberInserted++;
+                }
+            }
+            successful = true;
+        } finally {
+            finish(successful);
+        }
+        return numberInserted;
+    }
+
+    /**
+     * Starts the first chunk of {@link #insert(ContentValues[])}.
+     */
+    private void begin() {
+        mRowsInChunk = 0;
+        mChunkStartNanos = System.nanoTime();
+        mDb.beginTransaction();
+    }
+
+    /**
+     * Inserts a row, committing if it fills up the chunk.
+     *
+     * @return whether the row was inserted or replaced.
+     */
+    private boolean add(ContentValues values) {
+        boolean inserted = insertRow(values) != -1;
+        if (++mRowsInChunk == mChunkSize) {
+            // Commit what we have so far and start a fresh transaction for the next chunk
+            mDb.setTransactionSuccessful();
+            mDb.endTransaction();
+            chunkDone();
+
+            mRowsInChunk = 0;
+            mChunkStartNanos = System.nanoTime();
+            mDb.beginTransaction();
+        }
+        return inserted;
+    }
+
+    /**
+     * Inserts the values in a transaction of their own, for callers that read their rows a
+     * chunk at a time. Reading the next chunk happens outside of any transaction, so a slow
+     * source never holds the write lock. The compiled statements are kept for the next chunk
+     * until {@link #close()}.
+     *
+     * @return the number of rows that were inserted or replaced.
+     */
+    int insertChunk(List<ContentValues> values) {
+        if (values.isEmpty()) {
+            return 0;
+        }
+        int numberInserted = 0;
+        mRowsInChunk = values.size();
+        mChunkStartNanos = System.nanoTime();
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                if (insertRow(value) != -1) {
+                    numberInserted++;
+                }
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        chunkDone();
+        return numberInserted;
+    }
+
+    /**
+     * Commits the rows added since the last chunk, or rolls them back if not successful, and
+     * releases the compiled statements.
+     */
+    private void finish(boolean successful) {
+        try {
+            if (successful) {
+                mDb.setTransactionSuccessful();
+            }
+            mDb.endTransaction();
+        } finally {
+            close();
+        }
+        if (successful && mRowsInChunk > 0) {
+            chunkDone();
+        }
+    }
+
+    /**
+     * Binds and executes a single row.
+     *
+     * @return the row ID of the new or replaced row, or -1 if it could not be inserted or was
+     * ignored.
+     */
+    long insertRow(ContentValues values) {
+        if (values.size() == 0) {
+            // SQLiteDatabase.insert fails on empty values too, since there is no null column hack.
+            return -1;
+        }
+
+        CompiledInsert insert = statementFor(values);
+        String[] columns = insert.columns;
+        // Parameters are numbered, so a value the statement uses twice is only bound once
+        for (int i = 0; i < columns.length; i++) {
+            SqlUtils.bindValue(insert.statement, i + 1, values.get(columns[i]));
+        }
+
+        try {
+            return insert.statement.executeInsert();
+        } catch (SQLiteConstraintException e) {
+            Log.w(LOG_TAG, "Skipping row that violates a constraint: " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    void close() {
+        for (CompiledInsert insert : mStatements) {
+            insert.statement.close();
+        }
+        mStatements.clear();
+        mLastUsed = null;
+    }
+
+    /**
+     * Finds the compiled statement for the shape of the given values, compiling it if this is
+     * the first row with that shape.
+     */
+    private CompiledInsert statementFor(ContentValues values) {
+        if (mLastUsed != null && mLastUsed.matches(values)) {
+            return mLastUsed;
+        }
+        for (CompiledInsert insert : mStatements) {
+            if (insert.matches(values)) {
+                mLastUsed = insert;
+                return insert;
+            }
+        }
+
+        String[] columns = new String[values.size()];
+        int index = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns[index++] = entry.getKey();
+        }
+        Arrays.sort(columns);
+
+        mLastUsed = new CompiledInsert(columns, mDb.compileStatement(buildSql(columns)));
+        mStatements.add(mLastUsed);
+        return mLastUsed;
+    }
+
+    /**
+     * Builds the INSERT statement for rows with the given columns. Value {@code i} of the row is
+     * bound to parameter {@code ?i+1}.
+     * <p>
+     * SQLite only gained an upsert clause in version 3.24, so replacing and merging are done with
+     * INSERT OR REPLACE instead. The existing row's ID is looked up by the key column, so the
+     * replaced row keeps its ID, and the merge column's old value is looked up the same way. Rows
+     * that are replaced or merged can't set their own ID, or a different row could be deleted.
+     */
+    private String buildSql(String[] columns) {
+        int keyParameter = indexOf(columns, mKeyColumn) + 1;
+        boolean replacing = (mConflict == CONFLICT_REPLACE || mConflict == CONFLICT_MERGE)
+                && keyParameter > 0;
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder expressions = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                names.append(",");
+                expressions.append(",");
+            }
+            names.append(columns[i]);
+            if (replacing && mConflict == CONFLICT_MERGE && columns[i].equals(mMergeColumn)) {
+                expressions.append("MAX(?").append(i + 1).append(", IFNULL(")
+                        .append(selectExisting(mMergeColumn, keyParameter))
+                        .append(", ?").append(i + 1).append("))");
+            } else {
+                expressions.append("?").append(i + 1);
+            }
+        }
+        if (replacing && indexOf(columns, BaseColumns._ID) >= 0) {
+            throw new IllegalArgumentException(BaseColumns._ID +
+                    " can't be set when replacing or merging rows");
+        }
+        if (replacing) {
+            names.append(",").append(BaseColumns._ID);
+            expressions.append(",").append(selectExisting(BaseColumns._ID, keyParameter));
+        }
+        if (replacing && mConflict == CONFLICT_MERGE && mMergeColumn != null
+                && indexOf(columns, mMergeColumn) < 0) {
+            names.append(",").append(mMergeColumn);
+            expressions.append(",").append(selectExisting(mMergeColumn, keyParameter));
+        }
+
+        String verb = "INSERT";
+        if (mConflict == CONFLICT_IGNORE) {
+            verb = "INSERT OR IGNORE";
+        } else if (mConflict != CONFLICT_NONE) {
+            verb = "INSERT OR REPLACE";
+        }
+        return verb + " INTO " + mTable + " (" + names + ") VALUES (" + expressions + ")";
+    }
+
+    private String selectExisting(String column, int keyParameter) {
+        String condition = (mExistingRowCondition == null) ? ""
+                : " AND " + mExistingRowCondition;
+        return "(SELECT " + column + " FROM " + mTable + " WHERE " + mKeyColumn + " = ?" +
+                keyParameter + condition + ")";
+    }
+
+    private static int indexOf(String[] columns, String column) {
+        for (int i = 0; i < columns.length; i++) {
+            if (columns[i].equals(column)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Logs the throughput of the chunk that was just committed.
+     */
+    private void chunkDone() {
+        if (mMetrics != null) {
+            mMetrics.recordTransaction(mChunkStartNanos);
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - mChunkStartNanos) / 1000000);
+        Log.d(LOG_TAG, String.format("Committed %d rows in %d ms (%d rows/s)",
+                mRowsInChunk, elapsed, mRowsInChunk * 1000L / elapsed));
+    }
+
+    /**
+     * A compiled INSERT statement and the columns it binds, in bind order.
+     */
+    private static final class CompiledInsert {
+        final String[] columns;
+        final SQLiteStatement statement;
+
+        CompiledInsert(String[] columns, SQLiteStatement statement) {
+            this.columns = columns;
+            this.statement = statement;
+        }
+
+        boolean matches(ContentValues values) {
+            if (values.size() != columns.length) return false;
+            for (String column : columns) {
+                if (!values.containsKey(column)) return false;
+            }
+            return true;
+        }
+    }
+}
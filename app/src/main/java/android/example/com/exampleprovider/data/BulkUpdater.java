@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Updates many rows, each found by its key and each with its own values, in a single
+ * transaction.
+ * <p>
+ * Updating the rows one at a time through {@link SQLiteDatabase#update} builds and compiles a new
+ * UPDATE statement for every row, and through a provider each row is its own transaction too.
+ * Here one {@link SQLiteStatement} is compiled per column shape, like {@link BulkInserter} does,
+ * and every row is bound into it.
+ * <p>
+ * An instance is meant to be used for a single batch and then thrown away.
+ */
+class BulkUpdater {
+    private static final String LOG_TAG = BulkUpdater.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final String mTable;
+    private final String mKeyColumn;
+    private final String mRowCondition;
+
+    // Almost every batch uses a single shape, so a short list beats a map here.
+    private final List<CompiledUpdate> mStatements = new ArrayList<CompiledUpdate>();
+    private CompiledUpdate mLastUsed;
+
+    // Before API 11 a statement can't report how many rows it changed, so this asks SQLite
+    private SQLiteStatement mChanges;
+
+    private ProviderMetrics mMetrics;
+
+    /**
+     * @param keyColumn    the column that finds the row to update. Every row of values must
+     *                     have it.
+     * @param rowCondition a condition rows must also match to be updated, or null.
+     */
+    BulkUpdater(SQLiteDatabase db, String table, String keyColumn, String rowCondition) {
+        mDb = db;
+        mTable = table;
+        mKeyColumn = keyColumn;
+        mRowCondition = rowCondition;
+    }
+
+    /**
+     * Records how long the transaction takes.
+     */
+    void setMetrics(ProviderMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Updates the row with each of the values' key to the rest of the values, all in one
+     * transaction.
+     *
+     * @return the number of rows that were changed. Keys with no row, and rows that would break
+     * a constraint, are skipped.
+     * @throws IllegalArgumentException if any of the values are missing the key, before anything
+     * is changed.
+     */
+    int update(ContentValues[] values) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].get(mKeyColumn) == null) {
+                throw new IllegalArgumentException("Row " + i + " has no " + mKeyColumn + ": " +
+                        values[i]);
+            }
+        }
+
+        final long start = System.nanoTime();
+        int numberUpdated = 0;
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                numberUpdated += updateRow(value);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            try {
+                mDb.endTransaction();
+            } finally {
+                close();
+            }
+        }
+
+        if (mMetrics != null) {
+            mMetrics.recordTransaction(start);
+        }
+        long elapsed = Math.max(1, (System.nanoTime() - start) / 1000000);
+        Log.d(LOG_TAG, String.format("Updated %d of %d rows in %d ms (%d rows/s)",
+                numberUpdated, values.length, elapsed, values.length * 1000L / elapsed));
+        return numberUpdated;
+    }
+
+    /**
+     * Binds and executes a single row.
+     *
+     * @return the number of rows changed, 0 or 1.
+     */
+    private int updateRow(ContentValues values) {
+        if (values.size() == 1) {
+            // Only the key, so there is nothing to set
+            return 0;
+        }
+
+        CompiledUpdate update = statementFor(values);
+        String[] columns = update.columns;
+        for (int i = 0; i < columns.length; i++) {
+            SqlUtils.bindValue(update.statement, i + 1, values.get(columns[i]));
+        }
+        SqlUtils.bindValue(update.statement, columns.length + 1, values.get(mKeyColumn));
+
+        try {
+            return execute(update.statement);
+        } catch (SQLiteConstraintException e) {
+            Log.w(LOG_TAG, "Skipping row that violates a constraint: " + values, e);
+            return 0;
+        }
+    }
+
+    private int execute(SQLiteStatement statement) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return executeUpdateDelete(statement);
+        }
+        statement.execute();
+        if (mChanges == null) {
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+        return (int) mChanges.simpleQueryForLong();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int executeUpdateDelete(SQLiteStatement statement) {
+        return statement.executeUpdateDelete();
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    private void close() {
+        for (CompiledUpdate update : mStatements) {
+            update.statement.close();
+        }
+        mStatements.clear();
+        mLastUsed = null;
+        if (mChanges != null) {
+            mChanges.close();
+            mChanges = null;
+        }
+    }
+
+    /**
+     * Finds the compiled statement for the shape of the given values, compiling it if this is
+     * the first row with that shape.
+     */
+    private CompiledUpdate statementFor(ContentValues values) {
+        if (mLastUsed != null && mLastUsed.matches(values)) {
+            return mLastUsed;
+        }
+        for (CompiledUpdate update : mStatements) {
+            if (update.matches(values)) {
+                mLastUsed = update;
+                return update;
+            }
+        }
+
+        // The key is bound last, in the WHERE clause, so it isn't one of the columns
+        String[] columns = new String[values.size() - 1];
+        int index = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (!entry.getKey().equals(mKeyColumn)) {
+                columns[index++] = entry.getKey();
+            }
+        }
+        Arrays.sort(columns);
+
+        StringBuilder sql = new StringBuilder("UPDATE ").append(mTable).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(",");
+            }
+            sql.append(columns[i]).append(" = ?");
+        }
+        sql.append(" WHERE ").append(mKeyColumn).append(" = ?");
+        if (mRowCondition != null) {
+            sql.append(" AND ").append(mRowCondition);
+        }
+
+        mLastUsed = new CompiledUpdate(columns, mDb.compileStatement(sql.toString()));
+        mStatements.add(mLastUsed);
+        return mLastUsed;
+    }
+
+    /**
+     * A compiled UPDATE statement and the columns it sets, in bind order. The key is bound after
+     * them.
+     */
+    private static final class CompiledUpdate {
+        final String[] columns;
+        final SQLiteStatement statement;
+
+        CompiledUpdate(String[] columns, SQLiteStatement statement) {
+            this.columns = columns;
+            this.statement = statement;
+        }
+
+        boolean matches(ContentValues values) {
+            // The values also hold the key
+            if (values.size() != columns.length + 1) return false;
+            for (String column : columns) {
+                if (!values.containsKey(column)) return false;
+            }
+            return true;
+        }
+    }
+}
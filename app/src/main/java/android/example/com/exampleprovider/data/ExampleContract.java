@@ -3,6 +3,12 @@ package android.example.com.exampleprovider.data;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * This defines the table and columns for the friends table as well as associated
  * URIs, and MIME types.
@@ -46,6 +52,14 @@ public class ExampleContract {
 
         /**
          * Base Uri for the Friends table.
+         * <p>
+         * A change to one person, like an insert or an update or delete of a person's Uri, is
+         * notified on that person's Uri, {@code CONTENT_URI/<id>}. Changes that may touch many
+         * people, like bulk inserts or updates and deletes with a selection, are notified on this
+         * Uri. So a {@link android.database.ContentObserver} that needs to hear about every change
+         * to the table must be registered on this Uri with {@code notifyForDescendants} set to
+         * true. An observer registered without it only hears about the changes to many people.
+         * Cursors returned by the provider already watch the table this way.
          */
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_FRIENDS).build();
@@ -62,5 +76,704 @@ public class ExampleContract {
          */
         public static final String NUMBER_OF_FRIENDS = "num_friends";
 
+        /**
+         * The smallest {@link #NUMBER_OF_FRIENDS} the provider accepts.
+         */
+        public static final int MIN_NUMBER_OF_FRIENDS = 0;
+
+        /**
+         * The columns returned when a query on the friends Uris passes a null projection. Asking
+         * for only the columns you need keeps the rows in the cursor's window small, so list them
+         * explicitly when showing many rows.
+         * <p>
+         * The list can't be changed. Pass it to a query with
+         * {@code DEFAULT_PROJECTION.toArray(new String[DEFAULT_PROJECTION.size()])}.
+         */
+        public static final List<String> DEFAULT_PROJECTION = Collections.unmodifiableList(
+                Arrays.asList(_ID, NAME, NUMBER_OF_FRIENDS));
+
+        /**
+         * Maps each column a query on the friends Uris may ask for to the SQL that reads it. The
+         * provider rejects projections with columns that aren't in this map.
+         */
+        public static final Map<String, String> PROJECTION_MAP;
+
+        static {
+            Map<String, String> map = new HashMap<String, String>();
+            map.put(_ID, _ID);
+            map.put(NAME, NAME);
+            map.put(NUMBER_OF_FRIENDS, NUMBER_OF_FRIENDS);
+            PROJECTION_MAP = Collections.unmodifiableMap(map);
+        }
+
+        /**
+         * Optional query parameter for bulk inserts into {@link #CONTENT_URI}. It sets how many
+         * rows are committed per transaction.
+         */
+        public static final String PARAM_CHUNK_SIZE = "chunk_size";
+
+        /**
+         * Builds a URI for bulk inserts which commits every {@code chunkSize} rows.
+         */
+        public static Uri buildBulkInsertUri(int chunkSize) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_CHUNK_SIZE, String.valueOf(chunkSize))
+                    .build();
+        }
+
+        /**
+         * Optional query parameter for inserts and bulk inserts into {@link #CONTENT_URI}. It says
+         * what to do with a person whose {@link #NAME} is already in the table. Without it, the
+         * person is not inserted: insert returns null and bulk insert doesn't count the row.
+         * <p>
+         * One of {@link #CONFLICT_IGNORE}, {@link #CONFLICT_REPLACE} or {@link #CONFLICT_MERGE}.
+         */
+        public static final String PARAM_CONFLICT = "conflict";
+
+        /**
+         * Keeps the person already in the table. Insert returns the URI of that person.
+         */
+        public static final String CONFLICT_IGNORE = "ignore";
+
+        /**
+         * Overwrites the person already in the table, who keeps their {@link #_ID}. The values
+         * inserted with it, or with {@link #CONFLICT_MERGE}, can't have an {@link #_ID}.
+         */
+        public static final String CONFLICT_REPLACE = "replace";
+
+        /**
+         * Like {@link #CONFLICT_REPLACE}, but keeps the larger {@link #NUMBER_OF_FRIENDS}.
+         */
+        public static final String CONFLICT_MERGE = "merge";
+
+        /**
+         * Builds a URI for inserts and bulk inserts which resolve clashing names with the given
+         * {@link #PARAM_CONFLICT} policy.
+         */
+        public static Uri buildUpsertUri(String conflict) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_CONFLICT, conflict)
+                    .build();
+        }
+
+        /**
+         * Optional query parameter for deletes from {@link #CONTENT_URI} or a person's Uri. When
+         * it is "true" the people are only marked as deleted, which is quick however many there
+         * are, and they disappear from every query straight away. They are removed from the
+         * database for good, and the space they took is given back, in the background later.
+         */
+        public static final String PARAM_SOFT_DELETE = "soft_delete";
+
+        /**
+         * Builds a Uri which soft deletes the people that {@code uri} deletes. See
+         * {@link #PARAM_SOFT_DELETE}.
+         */
+        public static Uri buildSoftDeleteUri(Uri uri) {
+            return uri.buildUpon()
+                    .appendQueryParameter(PARAM_SOFT_DELETE, Boolean.TRUE.toString())
+                    .build();
+        }
+
+        public static final String PATH_BATCH_UPDATE = "batch_update";
+
+        /**
+         * Uri for changing many people at once, each in their own way. Pass the changes to
+         * {@link android.content.ContentResolver#bulkInsert(Uri, android.content.ContentValues[])}:
+         * each of the values has the {@link #_ID} of the person to change, and the columns to set
+         * for them. All of the people are changed in one transaction, and the number changed is
+         * returned.
+         * <p>
+         * To change every person that matches a selection in the same way, update
+         * {@link #CONTENT_URI} with that selection instead.
+         */
+        public static final Uri BATCH_UPDATE_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_BATCH_UPDATE).build();
+
+        public static final String PATH_TOP = "top";
+
+        /**
+         * Base Uri for the people with the most friends, most first. Ties are in reverse order of
+         * name, which lets the whole query be answered from an index. At most
+         * {@link #PARAM_PAGE_SIZE} people are returned, and the sort order is ignored.
+         */
+        public static final Uri TOP_URI = CONTENT_URI.buildUpon().appendPath(PATH_TOP).build();
+
+        /**
+         * Builds the URI for the {@code count} people with the most friends.
+         */
+        public static Uri buildTopUri(int count) {
+            return TOP_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(count))
+                    .build();
+        }
+
+        public static final String PATH_SEARCH = "search";
+
+        /**
+         * Base Uri for searching people by name. Use {@link #buildSearchUri(String)}.
+         * <p>
+         * A search finds everyone with a word in their name that starts with each word of the
+         * search, using a full-text index rather than scanning the table. Exact matches of the
+         * whole name come first, then names that start with the search, then shorter names. At
+         * most {@link #PARAM_PAGE_SIZE} people are returned, and the sort order is ignored.
+         */
+        public static final Uri SEARCH_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).build();
+
+        /**
+         * Builds the URI for people whose names match the search, for example "dan" for both
+         * "Dan" and "Jo Daniels".
+         */
+        public static Uri buildSearchUri(String search) {
+            return SEARCH_URI.buildUpon().appendPath(search).build();
+        }
+
+        public static final String PATH_EXPORT = "export";
+
+        /**
+         * The MIME type of the file read from {@link #EXPORT_URI}.
+         */
+        public static final String EXPORT_MIME_TYPE =
+                "application/vnd." + CONTENT_AUTHORITY + "." + PATH_FRIENDS;
+
+        /**
+         * Uri for reading the whole friends table as one file, with
+         * {@link android.content.ContentResolver#openInputStream(Uri)}. The rows are streamed
+         * straight out of the database in the format read and written by
+         * {@link FriendsBinaryFormat}, so this works for tables of any size.
+         */
+        public static final Uri EXPORT_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_EXPORT).build();
+
+        public static final String PATH_PAGE = "page";
+        public static final String PATH_BY_ID = "by_id";
+        public static final String PATH_BY_NAME = "by_name";
+
+        /**
+         * Query parameter holding the number of rows in a page.
+         */
+        public static final String PARAM_PAGE_SIZE = "page_size";
+
+        /**
+         * Query parameter holding the {@link #_ID} of the last row of the previous page.
+         */
+        public static final String PARAM_AFTER_ID = "after_id";
+
+        /**
+         * Query parameter holding the {@link #NAME} of the last row of the previous page.
+         */
+        public static final String PARAM_AFTER_NAME = "after_name";
+
+        /**
+         * Base Uri for pages of people ordered by {@link #_ID}.
+         * <p>
+         * Pages are found by seeking past the last row of the previous page rather than with an
+         * OFFSET, so every page costs the same no matter how deep into the table it is. Because of
+         * that, the sort order of a page query is ignored.
+         */
+        public static final Uri PAGE_BY_ID_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_PAGE).appendPath(PATH_BY_ID).build();
+
+        /**
+         * Base Uri for pages of people ordered by {@link #NAME} and then {@link #_ID}. See
+         * {@link #PAGE_BY_ID_URI}.
+         */
+        public static final Uri PAGE_BY_NAME_URI =
+                CONTENT_URI.buildUpon().appendPath(PATH_PAGE).appendPath(PATH_BY_NAME).build();
+
+        /**
+         * Builds the URI for the first page of people ordered by {@link #_ID}.
+         */
+        public static Uri buildPageByIdUri(int pageSize) {
+            return PAGE_BY_ID_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds the URI for the page of people ordered by {@link #_ID} which follows the row
+         * with the given ID.
+         */
+        public static Uri buildPageByIdUri(long afterId, int pageSize) {
+            return PAGE_BY_ID_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds the URI for the first page of people ordered by {@link #NAME}.
+         */
+        public static Uri buildPageByNameUri(int pageSize) {
+            return PAGE_BY_NAME_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+        /**
+         * Builds the URI for the page of people ordered by {@link #NAME} which follows the row
+         * with the given name and ID.
+         */
+        public static Uri buildPageByNameUri(String afterName, long afterId, int pageSize) {
+            return PAGE_BY_NAME_URI.buildUpon()
+                    .appendQueryParameter(PARAM_AFTER_NAME, afterName)
+                    .appendQueryParameter(PARAM_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(PARAM_PAGE_SIZE, String.valueOf(pageSize))
+                    .build();
+        }
+
+    }
+
+    /**
+     * Columns and Uris for statistics about the number of friends people have, which are worked
+     * out by the database instead of by reading every person.
+     * <p>
+     * {@link #CONTENT_URI} returns a single row with the {@link #COUNT}, {@link #SUM},
+     * {@link #AVERAGE}, {@link #MIN} and {@link #MAX} of {@link ExampleEntry#NUMBER_OF_FRIENDS}.
+     * Without a selection it is read from totals kept up to date on every write, and costs the
+     * same no matter how many people there are. With a selection it is worked out in one pass
+     * over the matching people.
+     * <p>
+     * {@link #HISTOGRAM_URI} returns one row per bucket of {@link #PARAM_BUCKET_SIZE} friends
+     * which has people in it, with the {@link #BUCKET_START} and the {@link #COUNT} of people.
+     * <p>
+     * Projections and sort orders are ignored for both.
+     */
+    public static final class AggregateEntry {
+
+        public static final String PATH_AGGREGATE = "aggregate";
+        public static final String PATH_HISTOGRAM = "histogram";
+
+        /**
+         * The MIME type for the statistics row.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_AGGREGATE;
+
+        /**
+         * The MIME type for the buckets of a histogram.
+         */
+        public static final String HISTOGRAM_DIR_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_HISTOGRAM;
+
+        /**
+         * Uri for the statistics about the number of friends.
+         */
+        public static final Uri CONTENT_URI =
+                ExampleEntry.CONTENT_URI.buildUpon().appendPath(PATH_AGGREGATE).build();
+
+        /**
+         * Base Uri for the histogram of the number of friends. Use
+         * {@link #buildHistogramUri(int)}.
+         */
+        public static final Uri HISTOGRAM_URI =
+                ExampleEntry.CONTENT_URI.buildUpon().appendPath(PATH_HISTOGRAM).build();
+
+        /**
+         * Query parameter holding how many different numbers of friends go in each bucket of
+         * the histogram. The default is 10.
+         */
+        public static final String PARAM_BUCKET_SIZE = "bucket_size";
+
+        /**
+         * Number of people.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String COUNT = "count";
+
+        /**
+         * Total number of friends.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String SUM = "sum";
+
+        /**
+         * Average number of friends, or null if there are no people.
+         * <P>Type: REAL</P>
+         */
+        public static final String AVERAGE = "average";
+
+        /**
+         * Smallest number of friends, or null if there are no people.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String MIN = "min";
+
+        /**
+         * Largest number of friends, or null if there are no people.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String MAX = "max";
+
+        /**
+         * Smallest number of friends that goes in a bucket of the histogram.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String BUCKET_START = "bucket_start";
+
+        /**
+         * Builds the URI for a histogram with buckets of the given size.
+         */
+        public static Uri buildHistogramUri(int bucketSize) {
+            return HISTOGRAM_URI.buildUpon()
+                    .appendQueryParameter(PARAM_BUCKET_SIZE, String.valueOf(bucketSize))
+                    .build();
+        }
+
+    }
+
+    /**
+     * Columns and Uri for the log of changes to the friends table, which lets a client that keeps
+     * its own copy of the people catch up by reading only what changed.
+     * <p>
+     * Every insert, update and delete of a person adds a row to the log in the same transaction,
+     * numbered by a {@link #SEQUENCE} that only ever goes up. To follow it:
+     * <ol>
+     * <li>Query {@link #CONTENT_URI} without {@link #PARAM_SINCE}. It returns one
+     * {@link #OPERATION_RESET} row holding the current sequence number.</li>
+     * <li>Load the whole friends table.</li>
+     * <li>When notified of a change, query {@link #buildChangesUri(long, int)} with the last
+     * sequence number seen, and apply the rows in order. Each row has the person's current
+     * {@link ExampleEntry#NAME} and {@link ExampleEntry#NUMBER_OF_FRIENDS}, or nulls if they have
+     * been deleted since.</li>
+     * </ol>
+     * Only the most recent changes are kept. A client that falls further behind than that gets a
+     * single {@link #OPERATION_RESET} row instead, and has to start again from the second step.
+     * <p>
+     * Projections and sort orders are ignored.
+     */
+    public static final class ChangeEntry {
+
+        public static final String PATH_CHANGES = "changes";
+
+        /**
+         * The MIME type for a list of changes.
+         */
+        public static final String CONTENT_DIR_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * Uri for the change log. Every change to the friends table, including a change to a
+         * single person, notifies it too.
+         */
+        public static final Uri CONTENT_URI =
+                ExampleEntry.CONTENT_URI.buildUpon().appendPath(PATH_CHANGES).build();
+
+        /**
+         * Query parameter holding the last sequence number the client has seen. Only changes
+         * after it are returned, at most {@link ExampleEntry#PARAM_PAGE_SIZE} of them.
+         */
+        public static final String PARAM_SINCE = "since";
+
+        /**
+         * Number of the change. Later changes have larger numbers.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String SEQUENCE = "seq";
+
+        /**
+         * The {@link ExampleEntry#_ID} of the person that changed.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String FRIEND_ID = "friend_id";
+
+        /**
+         * What happened to the person, one of the {@code OPERATION_} values.
+         * <P>Type: TEXT</P>
+         */
+        public static final String OPERATION = "op";
+
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+
+        /**
+         * The client has to load the whole table again, and then follow the log from this row's
+         * {@link #SEQUENCE}. Its other columns are null.
+         */
+        public static final String OPERATION_RESET = "reset";
+
+        /**
+         * Builds the URI for at most {@code limit} changes after {@code since}.
+         */
+        public static Uri buildChangesUri(long since, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_SINCE, String.valueOf(since))
+                    .appendQueryParameter(ExampleEntry.PARAM_PAGE_SIZE, String.valueOf(limit))
+                    .build();
+        }
+
+    }
+
+    /**
+     * Columns and Uri for importing people into the friends table from a file.
+     * <p>
+     * To import, open {@link #CONTENT_URI} with
+     * {@link android.content.ContentResolver#openOutputStream(Uri)} and write people to it in
+     * the format of {@link FriendsBinaryFormat}, for example a file read from
+     * {@link ExampleEntry#EXPORT_URI}. People are inserted while they are being written, so the
+     * file never has to be held in memory. The {@link ExampleEntry#PARAM_CHUNK_SIZE} and
+     * {@link ExampleEntry#PARAM_CONFLICT} query parameters work the same way as for a bulk insert.
+     * <p>
+     * Querying {@link #CONTENT_URI} returns a single row with the progress of the last import.
+     * Only one import can run at a time.
+     */
+    public static final class ImportEntry {
+
+        public static final String PATH_IMPORT = "import";
+
+        /**
+         * The MIME type for the progress of an import.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/" + CONTENT_AUTHORITY + "/" + PATH_IMPORT;
+
+        /**
+         * Uri for importing people, and for the progress of the import.
+         */
+        public static final Uri CONTENT_URI =
+                ExampleEntry.CONTENT_URI.buildUpon().appendPath(PATH_IMPORT).build();
+
+        /**
+         * Whether the import is running, one of the {@code STATE_} constants.
+         * <P>Type: TEXT</P>
+         */
+        public static final String STATE = "state";
+
+        /**
+         * Number of people read from the file so far.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String ROWS_READ = "rows_read";
+
+        /**
+         * Number of people inserted so far.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String ROWS_INSERTED = "rows_inserted";
+
+        /**
+         * Number of people that were invalid or clashed with someone already in the table, and
+         * so were not inserted.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String ERRORS = "errors";
+
+        /**
+         * Why the import failed, or null.
+         * <P>Type: TEXT</P>
+         */
+        public static final String MESSAGE = "message";
+
+        /**
+         * No import has been started since the provider was created.
+         */
+        public static final String STATE_IDLE = "idle";
+
+        /**
+         * The file is still being read.
+         */
+        public static final String STATE_RUNNING = "running";
+
+        /**
+         * The whole file was read and everyone in it has been committed.
+         */
+        public static final String STATE_FINISHED = "finished";
+
+        /**
+         * The file was broken or cut short. Everyone read before that has been committed.
+         */
+        public static final String STATE_FAILED = "failed";
+
+    }
+
+    /**
+     * Columns and Uri for the slow query log, which keeps the most recent queries that took
+     * longer than a threshold, along with how SQLite ran them.
+     * <p>
+     * The log is off until a threshold is set by updating {@link #CONTENT_URI} with
+     * {@link #THRESHOLD_MILLIS}; a negative threshold turns it off again. Deleting
+     * {@link #CONTENT_URI} clears it. Querying it returns the logged queries, newest first.
+     */
+    public static final class SlowQueryEntry implements BaseColumns {
+
+        public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+        /**
+         * The MIME type for the list of slow queries.
+         */
+        public static final String CONTENT_DIR_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /**
+         * Uri for the slow query log.
+         */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_SLOW_QUERIES).build();
+
+        /**
+         * Setting for how long a query has to take to be logged, in milliseconds.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String THRESHOLD_MILLIS = "threshold_ms";
+
+        /**
+         * When the query ran, in milliseconds since the epoch.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String TIME = "time";
+
+        /**
+         * The SQL that was run.
+         * <P>Type: TEXT</P>
+         */
+        public static final String SQL = "sql";
+
+        /**
+         * The arguments bound to the SQL, or null.
+         * <P>Type: TEXT</P>
+         */
+        public static final String ARGS = "args";
+
+        /**
+         * The output of EXPLAIN QUERY PLAN for the SQL, one step per line. A step like
+         * "SCAN TABLE friends" means the whole table was read.
+         * <P>Type: TEXT</P>
+         */
+        public static final String PLAN = "plan";
+
+        /**
+         * How long running the query and counting its rows took, in microseconds.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String DURATION_MICROS = "duration_us";
+
+        /**
+         * Number of rows the query returned.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String ROWS = "rows";
+
+    }
+
+    /**
+     * Columns and Uris for the provider's statistics. Each row is a named counter kept by the
+     * provider since it was created.
+     */
+    public static final class StatsEntry {
+
+        public static final String PATH_STATS = "stats";
+
+        /**
+         * The MIME type for the list of statistics.
+         */
+        public static final String CONTENT_DIR_TYPE =
+                "vnd.android.cursor.dir/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        /**
+         * Base Uri for the statistics.
+         */
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        /**
+         * Name of the statistic.
+         * <P>Type: TEXT</P>
+         */
+        public static final String KEY = "key";
+
+        /**
+         * Current value of the statistic.
+         * <P>Type: INTEGER</P>
+         */
+        public static final String VALUE = "value";
+
+        /**
+         * Number of changes reported by writes to the provider.
+         */
+        public static final String NOTIFICATIONS_REQUESTED = "notifications_requested";
+
+        /**
+         * Number of change notifications actually sent to observers.
+         */
+        public static final String NOTIFICATIONS_SENT = "notifications_sent";
+
+        /**
+         * Number of reported changes that were folded into another notification for the same URI.
+         */
+        public static final String NOTIFICATIONS_SUPPRESSED = "notifications_suppressed";
+
+        /**
+         * Number of single person lookups answered from the row cache.
+         */
+        public static final String ROW_CACHE_HITS = "row_cache_hits";
+
+        /**
+         * Number of single person lookups that had to read the database.
+         */
+        public static final String ROW_CACHE_MISSES = "row_cache_misses";
+
+        /**
+         * Number of rows dropped from the row cache to stay within its memory budget.
+         */
+        public static final String ROW_CACHE_EVICTIONS = "row_cache_evictions";
+
+        /**
+         * Estimated number of bytes held by the row cache.
+         */
+        public static final String ROW_CACHE_BYTES = "row_cache_bytes";
+
+        /**
+         * Number of queries for the list of people answered from the result cache.
+         */
+        public static final String RESULT_CACHE_HITS = "result_cache_hits";
+
+        /**
+         * Number of queries for the list of people that had to read the database.
+         */
+        public static final String RESULT_CACHE_MISSES = "result_cache_misses";
+
+        /**
+         * Whether the provider is timing its operations, 1 or 0. Update {@link #CONTENT_URI}
+         * with this key set to true or false to turn timing on or off, and delete
+         * {@link #CONTENT_URI} to reset the timings.
+         * <p>
+         * Each operation, like {@link #OPERATION_QUERY}, has a latency histogram in microseconds
+         * named after it with {@link #SUFFIX_MICROS}, and a total number of rows named with
+         * {@link #SUFFIX_ROWS}. A histogram is reported as a {@link #SUFFIX_COUNT}, a
+         * {@link #SUFFIX_SUM}, percentiles such as {@link #SUFFIX_P99}, and one row per
+         * non-empty bucket named with {@link #SUFFIX_BUCKET} and the bucket's upper bound, so
+         * for example "query_us_p99" and "query_us_le_1023". Percentiles are the upper bound of
+         * the bucket they fall in.
+         */
+        public static final String METRICS_ENABLED = "metrics_enabled";
+
+        public static final String OPERATION_QUERY = "query";
+        public static final String OPERATION_INSERT = "insert";
+        public static final String OPERATION_BULK_INSERT = "bulk_insert";
+        public static final String OPERATION_UPDATE = "update";
+        public static final String OPERATION_DELETE = "delete";
+        public static final String OPERATION_APPLY_BATCH = "apply_batch";
+
+        /**
+         * The database transactions committed by bulk inserts, imports and batches. Only has a
+         * latency histogram.
+         */
+        public static final String OPERATION_TRANSACTION = "transaction";
+
+        /**
+         * Histogram of the number of rows in the cursors returned by queries.
+         */
+        public static final String CURSOR_ROWS = "cursor_rows";
+
+        public static final String SUFFIX_MICROS = "_us";
+        public static final String SUFFIX_ROWS = "_rows";
+        public static final String SUFFIX_COUNT = "_count";
+        public static final String SUFFIX_SUM = "_sum";
+        public static final String SUFFIX_P50 = "_p50";
+        public static final String SUFFIX_P90 = "_p90";
+        public static final String SUFFIX_P99 = "_p99";
+        public static final String SUFFIX_BUCKET = "_le_";
+
     }
 }
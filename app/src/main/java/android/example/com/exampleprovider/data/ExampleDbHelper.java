@@ -15,10 +15,16 @@
  */
 package android.example.com.exampleprovider.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 import android.util.Log;
+import android.example.com.exampleprovider.data.ExampleContract.ChangeEntry;
 import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
 
 /**
@@ -32,14 +38,301 @@ public class ExampleDbHelper extends SQLiteOpenHelper {
      * Stores the current version of the database, starting at one. If you change the database schema,
      * you must increment the database version.
      * */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 6;
     /**
      * The name of the sqlite database file on the device
      */
     private static final String DATABASE_NAME = "example_database.db";
 
+    /**
+     * Covers queries that filter or sort by the number of friends, like a "top friends" list.
+     * Since it also holds the name, the deleted flag (and, like every index, the row ID), those
+     * queries can be answered from the index without touching the table.
+     */
+    public static final String INDEX_NUM_FRIENDS = "friends_num_friends_name_idx";
+
+    /**
+     * Lets case insensitive name prefix queries like {@code name LIKE 'Da%'} use an index.
+     */
+    public static final String INDEX_NAME_NOCASE = "friends_name_nocase_idx";
+
+    /**
+     * A full-text index of the names, which lets people be found by any word of their name
+     * without scanning the table. Its docid is the {@link ExampleEntry#_ID} of the person, and
+     * triggers on the friends table keep it up to date.
+     * <p>
+     * It uses FTS3 rather than FTS4, since FTS4 needs a newer SQLite than Gingerbread has.
+     */
+    public static final String TABLE_FRIENDS_FTS = "friends_fts";
+
+    /**
+     * A single row holding the number of people and their total number of friends, kept up to
+     * date by triggers, so that the totals can be read without scanning the table.
+     */
+    public static final String TABLE_FRIENDS_SUMMARY = "friends_summary";
+    public static final String SUMMARY_ROW_COUNT = "row_count";
+    public static final String SUMMARY_FRIENDS_SUM = "friends_sum";
+
+    /**
+     * Set on people that were deleted with {@link ExampleEntry#PARAM_SOFT_DELETE}, until the
+     * {@link TombstoneCompactor} removes them for good. It isn't part of the contract: every
+     * query the provider runs on the friends table only reads rows matching
+     * {@link #WHERE_NOT_DELETED}, and the triggers treat setting it like a delete.
+     */
+    public static final String COLUMN_DELETED = "deleted";
+    public static final String WHERE_NOT_DELETED = COLUMN_DELETED + " = 0";
+
+    /**
+     * Lets the compactor find the deleted people without scanning the table. It only holds
+     * those, so it costs nothing to keep up to date for everyone else. Partial indexes need
+     * SQLite 3.8.0 (Lollipop), so older devices don't have it and the compactor walks the table
+     * by ID instead.
+     */
+    public static final String INDEX_DELETED = "friends_deleted_idx";
+
+    /**
+     * The log of changes to the friends table behind {@link ChangeEntry}, filled in by triggers
+     * so that a change and its log entry are always committed together. AUTOINCREMENT keeps
+     * sequence numbers from being reused after the log is trimmed.
+     */
+    public static final String TABLE_FRIENDS_CHANGES = "friends_changes";
+
+    /**
+     * How many changes the log keeps. Each new change removes the one this far behind it, so
+     * trimming costs the same small amount on every write rather than a big delete now and then.
+     * It is part of a trigger, so changing it needs a migration that creates the trigger again.
+     */
+    public static final int CHANGE_LOG_MAX_ROWS = 10000;
+
+    /**
+     * Levels for {@code PRAGMA synchronous}, which say how hard SQLite works to make commits
+     * durable in write-ahead logging mode. See {@link #ExampleDbHelper(Context, String, String)}.
+     * <p>
+     * NORMAL, the default, only syncs during checkpoints; a commit can be lost on power failure,
+     * but never corrupted. FULL also syncs on every commit, so none are lost, at the cost of
+     * slower writes. OFF never syncs, and an operating system crash can corrupt the database.
+     * With a rollback journal NORMAL can corrupt the database too, so the level is only set
+     * when the log is used.
+     */
+    public static final String SYNCHRONOUS_OFF = "OFF";
+    public static final String SYNCHRONOUS_NORMAL = "NORMAL";
+    public static final String SYNCHRONOUS_FULL = "FULL";
+
+    /**
+     * Value of {@code PRAGMA auto_vacuum} in incremental mode, where the pages freed by deletes
+     * can be given back to the file system a few at a time. See {@link TombstoneCompactor}.
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    // How many rows a migration copies per transaction
+    private static final int MIGRATION_CHUNK_SIZE = 1000;
+
+    /**
+     * Every change to the schema since version 1, in order. To change the schema, add a
+     * migration here and increment the database version.
+     */
+    private static final Migration[] MIGRATIONS = new Migration[] {
+            // Version 2 adds the secondary indexes
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db, MigrationEngine engine) {
+                    createIndex(db, INDEX_NUM_FRIENDS,
+                            ExampleEntry.NUMBER_OF_FRIENDS + ", " + ExampleEntry.NAME);
+                    createIndex(db, INDEX_NAME_NOCASE, ExampleEntry.NAME + " COLLATE NOCASE");
+                }
+            },
+            // Version 3 adds the full-text index of the names
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db, MigrationEngine engine) {
+                    // Gingerbread's SQLite doesn't support IF NOT EXISTS for virtual tables
+                    if (!tableExists(db, TABLE_FRIENDS_FTS)) {
+                        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_FRIENDS_FTS +
+                                " USING fts3(" + ExampleEntry.NAME + ");");
+                    }
+                    createFtsTriggers(db);
+                    engine.copyInChunks(db, TABLE_FRIENDS_FTS, ExampleEntry.PATH_FRIENDS,
+                            "INSERT INTO " + TABLE_FRIENDS_FTS + " (docid, " +
+                                    ExampleEntry.NAME + ") SELECT " + ExampleEntry._ID + ", " +
+                                    ExampleEntry.NAME + " FROM " + ExampleEntry.PATH_FRIENDS +
+                                    " WHERE _id > ? AND _id <= ?");
+                }
+            },
+            // Version 4 adds the summary table
+            new Migration(4) {
+                @Override
+                void migrate(SQLiteDatabase db, MigrationEngine engine) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FRIENDS_SUMMARY + " (" +
+                            ExampleEntry._ID + " INTEGER PRIMARY KEY CHECK (" +
+                            ExampleEntry._ID + " = 0), " +
+                            SUMMARY_ROW_COUNT + " INTEGER NOT NULL, " +
+                            SUMMARY_FRIENDS_SUM + " INTEGER NOT NULL);");
+                    createSummaryTriggers(db);
+                    // A single pass, committed together with the triggers, so no write is missed
+                    db.execSQL("INSERT OR REPLACE INTO " + TABLE_FRIENDS_SUMMARY + " (" +
+                            ExampleEntry._ID + ", " + SUMMARY_ROW_COUNT + ", " +
+                            SUMMARY_FRIENDS_SUM + ") SELECT 0, COUNT(*), IFNULL(SUM(" +
+                            ExampleEntry.NUMBER_OF_FRIENDS + "), 0) FROM " +
+                            ExampleEntry.PATH_FRIENDS + ";");
+                }
+            },
+            // Version 5 adds the deleted flag for soft deletes
+            new Migration(5) {
+                @Override
+                void migrate(SQLiteDatabase db, MigrationEngine engine) {
+                    if (!columnExists(db, ExampleEntry.PATH_FRIENDS, COLUMN_DELETED)) {
+                        db.execSQL("ALTER TABLE " + ExampleEntry.PATH_FRIENDS + " ADD COLUMN " +
+                                COLUMN_DELETED + " INTEGER NOT NULL DEFAULT 0;");
+                    }
+                    createTombstoneTriggers(db);
+                    // Every query now checks the flag, so the covering index needs it too
+                    db.execSQL("DROP INDEX IF EXISTS " + INDEX_NUM_FRIENDS + ";");
+                    createIndex(db, INDEX_NUM_FRIENDS, ExampleEntry.NUMBER_OF_FRIENDS + ", " +
+                            ExampleEntry.NAME + ", " + COLUMN_DELETED);
+                    if (isSqliteVersionAtLeast(db, 3, 8, 0)) {
+                        db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_DELETED + " ON " +
+                                ExampleEntry.PATH_FRIENDS + " (" + ExampleEntry._ID + ") WHERE " +
+                                COLUMN_DELETED + " != 0;");
+                    }
+                }
+            },
+            // Version 6 adds the change log
+            new Migration(6) {
+                @Override
+                void migrate(SQLiteDatabase db, MigrationEngine engine) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + " (" +
+                            ChangeEntry.SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            ChangeEntry.FRIEND_ID + " INTEGER NOT NULL, " +
+                            ChangeEntry.OPERATION + " TEXT NOT NULL);");
+                    createChangeLogTriggers(db);
+                }
+            }
+    };
+
+    private final MigrationEngine mMigrationEngine =
+            new MigrationEngine(MIGRATIONS, MIGRATION_CHUNK_SIZE);
+
+    private final String mWalSynchronousMode;
+
     public ExampleDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * Opens a friends database stored under a different file name, for example in tests.
+     */
+    public ExampleDbHelper(Context context, String name) {
+        this(context, name, SYNCHRONOUS_NORMAL);
+    }
+
+    /**
+     * Opens a friends database which syncs commits made in write-ahead logging mode at the given
+     * level.
+     *
+     * @param walSynchronousMode one of {@link #SYNCHRONOUS_OFF}, {@link #SYNCHRONOUS_NORMAL} or
+     *                           {@link #SYNCHRONOUS_FULL}.
+     * @throws IllegalArgumentException for any other level.
+     */
+    public ExampleDbHelper(Context context, String name, String walSynchronousMode) {
+        super(context, name, null, DATABASE_VERSION);
+        if (!SYNCHRONOUS_OFF.equals(walSynchronousMode)
+                && !SYNCHRONOUS_NORMAL.equals(walSynchronousMode)
+                && !SYNCHRONOUS_FULL.equals(walSynchronousMode)) {
+            throw new IllegalArgumentException("Invalid synchronous mode: " + walSynchronousMode);
+        }
+        mWalSynchronousMode = walSynchronousMode;
+    }
+
+    /**
+     * Called from Jelly Bean on, before the database is created or upgraded.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (db.getVersion() == 0) {
+            // Auto-vacuum can only be turned on before the first table is created, and before
+            // switching to write-ahead logging, which writes the database header
+            runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+        }
+        // With write-ahead logging, queries run on their own read-only connections and don't
+        // have to wait for a writer's transaction to finish.
+        enableWriteAheadLogging(db);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            // Before Jelly Bean there is no onConfigure to do this in
+            enableWriteAheadLogging(db);
+        }
+        if ("wal".equalsIgnoreCase(
+                DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null))) {
+            runPragma(db, "PRAGMA synchronous = " + mWalSynchronousMode);
+        }
+        // INSERT OR REPLACE, which the provider uses for upserts, deletes the row it replaces.
+        // This makes that delete fire DELETE triggers like any other.
+        runPragma(db, "PRAGMA recursive_triggers = ON");
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLogging(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
+    }
+
+    /**
+     * Copies the write-ahead log back into the database without waiting for readers, so that a
+     * large write doesn't leave a large log behind. Does nothing in rollback journal mode.
+     */
+    public void checkpoint() {
+        runPragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    /**
+     * Switches a database to incremental auto-vacuum, so that {@link TombstoneCompactor} can
+     * give the pages freed by deletes back to the file system. Databases created on Jelly Bean
+     * or later already are; older ones can only be switched by rebuilding the whole file with
+     * VACUUM, which holds the write lock until it finishes. So this is only for a maintenance
+     * task, for example while the device is idle, and never for a path a write can start.
+     *
+     * @return whether the database is in incremental mode now. VACUUM fails while another
+     * connection is using the database, in which case it can be tried again later.
+     */
+    public boolean enableIncrementalVacuum() {
+        SQLiteDatabase db = getWritableDatabase();
+        if (DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL) {
+            return true;
+        }
+        Log.i(LOG_TAG, "Switching the database to incremental vacuum");
+        try {
+            runPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+            db.execSQL("VACUUM");
+        } catch (SQLiteException e) {
+            Log.w(LOG_TAG, "Could not vacuum the database", e);
+        }
+        return DatabaseUtils.longForQuery(db, "PRAGMA auto_vacuum", null)
+                == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    /**
+     * Runs a PRAGMA. Some PRAGMAs return a row, which execSQL doesn't allow, so they go through
+     * rawQuery instead.
+     */
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
@@ -47,26 +340,193 @@ public class ExampleDbHelper extends SQLiteOpenHelper {
         // Creates a table to hold how many friends each person has
         Log.i(LOG_TAG, "Bootstrapping database version: " + DATABASE_VERSION);
 
+        // This is the schema of version 1. IF NOT EXISTS lets an interrupted create resume.
         sqLiteDatabase.execSQL(
-                "CREATE TABLE " + ExampleEntry.PATH_FRIENDS + " (" +
+                "CREATE TABLE IF NOT EXISTS " + ExampleEntry.PATH_FRIENDS + " (" +
                         ExampleEntry._ID + " INTEGER PRIMARY KEY," +
                         ExampleEntry.NAME + " TEXT UNIQUE NOT NULL, " +
                         ExampleEntry.NUMBER_OF_FRIENDS + " INTEGER NOT NULL " +
                         " );"
         );
+
+        // Every later version is built by the same migrations that upgrade existing databases
+        mMigrationEngine.upgrade(sqLiteDatabase, 1, DATABASE_VERSION);
     }
 
-    // This method is used if the schema of the table changes. In this simplified example, we are
-    // dropping (which completely deletes) the old data, before remaking the table with the new
-    // updated schema.
-    // Less destructive implementations could use alter table to save the current version of the
-    // table and then create the new, updated table and populate it with the old data.
+    // This method is used if the schema of the table changes. Rather than dropping the table and
+    // losing the data, each migration since the old version is applied to the existing table, and
+    // an interrupted upgrade resumes from the last migration or chunk it committed.
     @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int newVersion, int oldVersion) {
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
 
         Log.i(LOG_TAG, String.format("Upgrading database from version %d to %d", oldVersion, newVersion));
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + ExampleEntry.PATH_FRIENDS);
-        onCreate(sqLiteDatabase);
+        mMigrationEngine.upgrade(sqLiteDatabase, oldVersion, newVersion);
+
+    }
+
+    /**
+     * Creates the triggers which copy every change to a name into the full-text index.
+     */
+    private static void createFtsTriggers(SQLiteDatabase db) {
+        String deleteOld = "DELETE FROM " + TABLE_FRIENDS_FTS + " WHERE docid = OLD." +
+                ExampleEntry._ID + "; ";
+        // The insert trigger clears the docid first, in case a row was replaced without its
+        // DELETE trigger firing
+        String insertNew = "DELETE FROM " + TABLE_FRIENDS_FTS + " WHERE docid = NEW." +
+                ExampleEntry._ID + "; " +
+                "INSERT INTO " + TABLE_FRIENDS_FTS + " (docid, " + ExampleEntry.NAME + ") " +
+                "VALUES (NEW." + ExampleEntry._ID + ", NEW." + ExampleEntry.NAME + "); ";
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_FTS + "_insert " +
+                "AFTER INSERT ON " + ExampleEntry.PATH_FRIENDS + " BEGIN " +
+                insertNew + "END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_FTS + "_update " +
+                "AFTER UPDATE OF " + ExampleEntry._ID + ", " + ExampleEntry.NAME + " ON " +
+                ExampleEntry.PATH_FRIENDS + " BEGIN " +
+                deleteOld + insertNew + "END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_FTS + "_delete " +
+                "AFTER DELETE ON " + ExampleEntry.PATH_FRIENDS + " BEGIN " +
+                deleteOld + "END;");
+    }
+
+    /**
+     * Creates the triggers which keep the summary table in step with the friends table. A row
+     * removed by INSERT OR REPLACE fires the DELETE trigger too, since recursive triggers are
+     * turned on in {@link #onOpen}.
+     */
+    private static void createSummaryTriggers(SQLiteDatabase db) {
+        String update = "UPDATE " + TABLE_FRIENDS_SUMMARY + " SET ";
+        String friends = ExampleEntry.NUMBER_OF_FRIENDS;
 
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_SUMMARY + "_insert " +
+                "AFTER INSERT ON " + ExampleEntry.PATH_FRIENDS + " BEGIN " + update +
+                SUMMARY_ROW_COUNT + " = " + SUMMARY_ROW_COUNT + " + 1, " +
+                SUMMARY_FRIENDS_SUM + " = " + SUMMARY_FRIENDS_SUM + " + NEW." + friends +
+                "; END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_SUMMARY + "_update " +
+                "AFTER UPDATE OF " + friends + " ON " + ExampleEntry.PATH_FRIENDS + " BEGIN " +
+                update + SUMMARY_FRIENDS_SUM + " = " + SUMMARY_FRIENDS_SUM + " - OLD." +
+                friends + " + NEW." + friends + "; END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_SUMMARY + "_delete " +
+                "AFTER DELETE ON " + ExampleEntry.PATH_FRIENDS + " BEGIN " + update +
+                SUMMARY_ROW_COUNT + " = " + SUMMARY_ROW_COUNT + " - 1, " +
+                SUMMARY_FRIENDS_SUM + " = " + SUMMARY_FRIENDS_SUM + " - OLD." + friends +
+                "; END;");
+    }
+
+    /**
+     * Makes the summary table and the full-text index treat a person as gone as soon as they are
+     * marked deleted, rather than when the compactor removes them, and lets a new person take the
+     * name of a deleted one.
+     */
+    private static void createTombstoneTriggers(SQLiteDatabase db) {
+        String friends = ExampleEntry.NUMBER_OF_FRIENDS;
+
+        // Removing a person that was already marked deleted mustn't count them again
+        db.execSQL("DROP TRIGGER IF EXISTS " + TABLE_FRIENDS_SUMMARY + "_delete;");
+        db.execSQL("CREATE TRIGGER " + TABLE_FRIENDS_SUMMARY + "_delete " +
+                "AFTER DELETE ON " + ExampleEntry.PATH_FRIENDS + " WHEN OLD." + COLUMN_DELETED +
+                " = 0 BEGIN UPDATE " + TABLE_FRIENDS_SUMMARY + " SET " +
+                SUMMARY_ROW_COUNT + " = " + SUMMARY_ROW_COUNT + " - 1, " +
+                SUMMARY_FRIENDS_SUM + " = " + SUMMARY_FRIENDS_SUM + " - OLD." + friends +
+                "; END;");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + ExampleEntry.PATH_FRIENDS + "_soft_delete " +
+                "AFTER UPDATE OF " + COLUMN_DELETED + " ON " + ExampleEntry.PATH_FRIENDS +
+                " WHEN OLD." + COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED + " != 0 BEGIN " +
+                "UPDATE " + TABLE_FRIENDS_SUMMARY + " SET " +
+                SUMMARY_ROW_COUNT + " = " + SUMMARY_ROW_COUNT + " - 1, " +
+                SUMMARY_FRIENDS_SUM + " = " + SUMMARY_FRIENDS_SUM + " - OLD." + friends + "; " +
+                "DELETE FROM " + TABLE_FRIENDS_FTS + " WHERE docid = OLD." + ExampleEntry._ID +
+                "; END;");
+
+        // Names are unique, so a deleted person still holding the name is removed first
+        String purge = "DELETE FROM " + ExampleEntry.PATH_FRIENDS + " WHERE " +
+                ExampleEntry.NAME + " = NEW." + ExampleEntry.NAME + " AND " + COLUMN_DELETED +
+                " != 0; ";
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + ExampleEntry.PATH_FRIENDS +
+                "_insert_over_deleted BEFORE INSERT ON " + ExampleEntry.PATH_FRIENDS +
+                " BEGIN " + purge + "END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + ExampleEntry.PATH_FRIENDS +
+                "_rename_over_deleted BEFORE UPDATE OF " + ExampleEntry.NAME + " ON " +
+                ExampleEntry.PATH_FRIENDS + " WHEN NEW." + ExampleEntry.NAME + " != OLD." +
+                ExampleEntry.NAME + " BEGIN " + purge + "END;");
+    }
+
+    /**
+     * Creates the triggers which log every change to a person. Soft deletes are logged as
+     * deletes, and removing a person who was already soft deleted isn't logged again.
+     */
+    private static void createChangeLogTriggers(SQLiteDatabase db) {
+        String friends = ExampleEntry.PATH_FRIENDS;
+        String log = "INSERT INTO " + TABLE_FRIENDS_CHANGES + " (" + ChangeEntry.FRIEND_ID +
+                ", " + ChangeEntry.OPERATION + ") VALUES ";
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + "_insert " +
+                "AFTER INSERT ON " + friends + " BEGIN " + log + "(NEW." + ExampleEntry._ID +
+                ", '" + ChangeEntry.OPERATION_INSERT + "'); END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + "_update " +
+                "AFTER UPDATE OF " + ExampleEntry.NAME + ", " + ExampleEntry.NUMBER_OF_FRIENDS +
+                " ON " + friends + " WHEN NEW." + COLUMN_DELETED + " = 0 BEGIN " + log + "(NEW." +
+                ExampleEntry._ID + ", '" + ChangeEntry.OPERATION_UPDATE + "'); END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + "_soft_delete " +
+                "AFTER UPDATE OF " + COLUMN_DELETED + " ON " + friends + " WHEN OLD." +
+                COLUMN_DELETED + " = 0 AND NEW." + COLUMN_DELETED + " != 0 BEGIN " + log +
+                "(OLD." + ExampleEntry._ID + ", '" + ChangeEntry.OPERATION_DELETE + "'); END;");
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + "_delete " +
+                "AFTER DELETE ON " + friends + " WHEN OLD." + COLUMN_DELETED + " = 0 BEGIN " +
+                log + "(OLD." + ExampleEntry._ID + ", '" + ChangeEntry.OPERATION_DELETE +
+                "'); END;");
+
+        db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TABLE_FRIENDS_CHANGES + "_trim " +
+                "AFTER INSERT ON " + TABLE_FRIENDS_CHANGES + " BEGIN DELETE FROM " +
+                TABLE_FRIENDS_CHANGES + " WHERE " + ChangeEntry.SEQUENCE + " <= NEW." +
+                ChangeEntry.SEQUENCE + " - " + CHANGE_LOG_MAX_ROWS + "; END;");
+    }
+
+    private static boolean columnExists(SQLiteDatabase db, String table, String column) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int nameColumn = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if (column.equals(cursor.getString(nameColumn))) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Compares the version of SQLite the database is running on, like "3.7.11", with the given
+     * one.
+     */
+    static boolean isSqliteVersionAtLeast(SQLiteDatabase db, int major, int minor, int patch) {
+        String[] parts = DatabaseUtils.stringForQuery(db, "SELECT sqlite_version()", null)
+                .split("\\.");
+        int[] wanted = new int[] {major, minor, patch};
+        for (int i = 0; i < wanted.length; i++) {
+            int part = (i < parts.length) ? Integer.parseInt(parts[i]) : 0;
+            if (part != wanted[i]) {
+                return part > wanted[i];
+            }
+        }
+        return true;
+    }
+
+    private static boolean tableExists(SQLiteDatabase db, String name) {
+        return DatabaseUtils.longForQuery(db,
+                "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                new String[] {name}) > 0;
+    }
+
+    /**
+     * Builds an index on the friends table from the rows that are already in it.
+     */
+    private static void createIndex(SQLiteDatabase sqLiteDatabase, String name, String columns) {
+        sqLiteDatabase.execSQL("CREATE INDEX IF NOT EXISTS " + name + " ON " +
+                ExampleEntry.PATH_FRIENDS + " (" + columns + ");");
     }
-}
\ No newline at end of file
+}
@@ -16,13 +16,35 @@
 package android.example.com.exampleprovider.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.example.com.exampleprovider.data.ExampleContract.AggregateEntry;
+import android.example.com.exampleprovider.data.ExampleContract.ChangeEntry;
 import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.example.com.exampleprovider.data.ExampleContract.ImportEntry;
+import android.example.com.exampleprovider.data.ExampleContract.SlowQueryEntry;
+import android.example.com.exampleprovider.data.ExampleContract.StatsEntry;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Locale;
 
 /**
  * This is a ContentProvider for the friends database. This content provider
@@ -30,14 +52,85 @@ import android.net.Uri;
  * access to the friends database.
  */
 public class ExampleProvider extends ContentProvider {
+    private static final String LOG_TAG = ExampleProvider.class.getSimpleName();
 
     private ExampleDbHelper mDbHelper;
+    private NotificationCoalescer mNotifier;
+    private FriendRowCache mRowCache;
+    private QueryResultCache mResultCache;
+    private ProviderMetrics mMetrics;
+    private SlowQueryLog mSlowQueryLog;
+
+    // The import that is running, or the last one that ran
+    private FriendsImporter mImporter;
+
+    // Removes soft deleted people on a background thread, created the first time it's needed
+    private TombstoneCompactor mCompactor;
+    private Handler mCompactionHandler;
 
     // URI Matcher Codes
     private static final int FRIEND = 100;
     private static final int FRIEND_WITH_ID = 101;
+    private static final int FRIEND_PAGE_BY_ID = 102;
+    private static final int FRIEND_PAGE_BY_NAME = 103;
+    private static final int FRIEND_EXPORT = 104;
+    private static final int FRIEND_IMPORT = 105;
+    private static final int FRIEND_SEARCH = 106;
+    private static final int FRIEND_AGGREGATE = 107;
+    private static final int FRIEND_HISTOGRAM = 108;
+    private static final int FRIEND_TOP = 109;
+    private static final int FRIEND_BATCH_UPDATE = 110;
+    private static final int FRIEND_CHANGES = 111;
+    private static final int STATS = 200;
+    private static final int SLOW_QUERIES = 201;
+
+    // Package private so that the benchmarks can measure it
+    static final UriMatcher sUriMatcher = buildUriMatcher();
+
+    // Checks values written to the friends table against the columns in the contract
+    private static final ValuesValidator sValidator = ValuesValidator.forFriends();
+
+    // How many rows a bulk insert commits per transaction unless the URI says otherwise
+    private static final int DEFAULT_BULK_INSERT_CHUNK_SIZE = 500;
+
+    // Bulk inserts at least this big checkpoint the write-ahead log when they are done
+    private static final int CHECKPOINT_AFTER_ROWS = 10000;
+
+    // How long changes are collected before observers are notified about them
+    private static final long NOTIFICATION_WINDOW_MILLIS = 50;
+
+    // A batch update changing more people than this notifies the whole table instead of each row
+    private static final int MAX_ROW_NOTIFICATIONS = 20;
 
-    private static final UriMatcher sUriMatcher = buildUriMatcher();
+    // Memory budget for single rows cached for the friend with ID URI
+    private static final int ROW_CACHE_MAX_BYTES = 64 * 1024;
+
+    // Limits for the cache of whole query results for the friends URI
+    private static final int RESULT_CACHE_MAX_ENTRIES = 16;
+    private static final int RESULT_CACHE_MAX_ROWS = 500;
+
+    // Page sizes for the paged friends URIs
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 1000;
+
+    // Bucket size for the histogram URI unless the URI says otherwise
+    private static final int DEFAULT_BUCKET_SIZE = 10;
+
+    // How many rows an export reads from the database at a time
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    // How many of the most recent slow queries are kept
+    private static final int SLOW_QUERY_LOG_CAPACITY = 32;
+
+    // Size of the buffer in front of the export pipe
+    private static final int EXPORT_BUFFER_BYTES = 8 * 1024;
+
+    // Soft deleted people are removed this long after the last soft delete, a batch at a time,
+    // with a pause after each batch to let the provider's writes in
+    private static final long COMPACTION_DELAY_MILLIS = 5000;
+    private static final int COMPACTION_BATCH_SIZE = 200;
+    private static final int COMPACTION_VACUUM_PAGES = 64;
+    private static final long COMPACTION_PAUSE_MILLIS = 20;
 
     /**
      * Builds a UriMatcher object for the friends database URIs.
@@ -55,68 +148,658 @@ public class ExampleProvider extends ContentProvider {
         // Need your content authority.
         matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS, FRIEND);
         matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/#", FRIEND_WITH_ID);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_PAGE + "/" + ExampleEntry.PATH_BY_ID, FRIEND_PAGE_BY_ID);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_PAGE + "/" + ExampleEntry.PATH_BY_NAME, FRIEND_PAGE_BY_NAME);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_EXPORT, FRIEND_EXPORT);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ImportEntry.PATH_IMPORT, FRIEND_IMPORT);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_SEARCH + "/*", FRIEND_SEARCH);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                AggregateEntry.PATH_AGGREGATE, FRIEND_AGGREGATE);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                AggregateEntry.PATH_HISTOGRAM, FRIEND_HISTOGRAM);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_TOP, FRIEND_TOP);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ExampleEntry.PATH_BATCH_UPDATE, FRIEND_BATCH_UPDATE);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, ExampleEntry.PATH_FRIENDS + "/" +
+                ChangeEntry.PATH_CHANGES, FRIEND_CHANGES);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, StatsEntry.PATH_STATS, STATS);
+        matcher.addURI(ExampleContract.CONTENT_AUTHORITY, SlowQueryEntry.PATH_SLOW_QUERIES,
+                SLOW_QUERIES);
 
         return matcher;
     }
 
     /**
      * Checks whether values can be inserted in the database
+     *
+     * @throws IllegalArgumentException listing every problem with the values.
+     */
+    static void checkInput(ContentValues values) {
+        sValidator.validate(values);
+    }
+
+    /**
+     * Checks whether all of the rows can be inserted in the database, before any of them are.
+     *
+     * @throws IllegalArgumentException listing every problem with every row.
+     */
+    static void checkInput(ContentValues[] values) {
+        sValidator.validateAll(values);
+    }
+
+    /**
+     * Reads the number of rows to commit per transaction during a bulk insert from the
+     * {@link ExampleEntry#PARAM_CHUNK_SIZE} query parameter.
+     */
+    private static int getChunkSize(Uri uri) {
+        String chunkSize = uri.getQueryParameter(ExampleEntry.PARAM_CHUNK_SIZE);
+        if (chunkSize == null) {
+            return DEFAULT_BULK_INSERT_CHUNK_SIZE;
+        }
+        try {
+            int size = Integer.parseInt(chunkSize);
+            if (size > 0) return size;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+
+    /**
+     * Reads the {@link ExampleEntry#PARAM_CONFLICT} query parameter.
+     *
+     * @return one of the {@link BulkInserter} conflict policies.
+     */
+    private static int getConflict(Uri uri) {
+        String conflict = uri.getQueryParameter(ExampleEntry.PARAM_CONFLICT);
+        if (conflict == null) {
+            return BulkInserter.CONFLICT_NONE;
+        } else if (ExampleEntry.CONFLICT_IGNORE.equals(conflict)) {
+            return BulkInserter.CONFLICT_IGNORE;
+        } else if (ExampleEntry.CONFLICT_REPLACE.equals(conflict)) {
+            return BulkInserter.CONFLICT_REPLACE;
+        } else if (ExampleEntry.CONFLICT_MERGE.equals(conflict)) {
+            return BulkInserter.CONFLICT_MERGE;
+        }
+        throw new IllegalArgumentException("Invalid conflict policy: " + conflict);
+    }
+
+    /**
+     * Checks that rows inserted with a policy that replaces people don't set their own
+     * {@link ExampleEntry#_ID}. INSERT OR REPLACE would then delete the person already holding
+     * the name and insert the new row under the given ID, so a different person would be removed
+     * than the one the provider invalidates and notifies.
+     *
+     * @throws IllegalArgumentException if a row has an ID.
+     */
+    private static void checkUpsert(int conflict, ContentValues... values) {
+        if (conflict != BulkInserter.CONFLICT_REPLACE && conflict != BulkInserter.CONFLICT_MERGE) {
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (values[i].containsKey(ExampleEntry._ID)) {
+                throw new IllegalArgumentException("row " + i + ": " + ExampleEntry._ID +
+                        " can't be set when replacing or merging people");
+            }
+        }
+    }
+
+    /**
+     * Creates an inserter for the friends table which resolves clashing names with the given
+     * policy.
      */
-    private static void checkInput(ContentValues values) {
+    private BulkInserter newFriendsInserter(SQLiteDatabase db, int chunkSize, int conflict) {
+        BulkInserter inserter = new BulkInserter(db, ExampleEntry.PATH_FRIENDS, chunkSize,
+                conflict, ExampleEntry.NAME, ExampleEntry.NUMBER_OF_FRIENDS);
+        inserter.setExistingRowCondition(ExampleDbHelper.WHERE_NOT_DELETED);
+        inserter.setMetrics(mMetrics);
+        return inserter;
+    }
 
-        if (values == null) {
-            throw new IllegalArgumentException("Cannot have null content values");
+    /**
+     * Reads the page size from the {@link ExampleEntry#PARAM_PAGE_SIZE} query parameter.
+     */
+    private static int getPageSize(Uri uri) {
+        String pageSize = uri.getQueryParameter(ExampleEntry.PARAM_PAGE_SIZE);
+        if (pageSize == null) {
+            return DEFAULT_PAGE_SIZE;
         }
+        try {
+            int size = Integer.parseInt(pageSize);
+            if (size > 0) return Math.min(size, MAX_PAGE_SIZE);
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid page size: " + pageSize);
+    }
 
-        Integer newNumberFriends = values.getAsInteger(ExampleEntry.NUMBER_OF_FRIENDS);
+    /**
+     * Reads the {@link AggregateEntry#PARAM_BUCKET_SIZE} query parameter.
+     */
+    private static int getBucketSize(Uri uri) {
+        String bucketSize = uri.getQueryParameter(AggregateEntry.PARAM_BUCKET_SIZE);
+        if (bucketSize == null) {
+            return DEFAULT_BUCKET_SIZE;
+        }
+        try {
+            int size = Integer.parseInt(bucketSize);
+            if (size > 0) return size;
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid bucket size: " + bucketSize);
+    }
 
-        if ((newNumberFriends != null) && (newNumberFriends.intValue() < 0)) {
-            throw new IllegalArgumentException("Cannot have a negative number of friends: " +
-                    newNumberFriends);
+    /**
+     * Reads the {@link ExampleEntry#PARAM_AFTER_ID} query parameter, or returns null for the
+     * first page.
+     */
+    private static String getAfterId(Uri uri) {
+        String afterId = uri.getQueryParameter(ExampleEntry.PARAM_AFTER_ID);
+        if (afterId == null) {
+            return null;
+        }
+        try {
+            return String.valueOf(Long.parseLong(afterId));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ID to page after: " + afterId);
         }
     }
 
     @Override
     public boolean onCreate() {
         mDbHelper = new ExampleDbHelper(getContext());
+        mNotifier = new NotificationCoalescer(getContext().getContentResolver(),
+                NOTIFICATION_WINDOW_MILLIS);
+        mRowCache = new FriendRowCache(ROW_CACHE_MAX_BYTES);
+        mResultCache = new QueryResultCache(RESULT_CACHE_MAX_ENTRIES, RESULT_CACHE_MAX_ROWS);
+        mMetrics = new ProviderMetrics();
+        mSlowQueryLog = new SlowQueryLog(SLOW_QUERY_LOG_CAPACITY);
         return true;
     }
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        final long start = mMetrics.start();
 
-        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        // The same database getWritableDatabase() returns. With write-ahead logging, its
+        // connection pool runs each read-only statement on a secondary connection by itself.
+        final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        Cursor cursor;
 
         switch (sUriMatcher.match(uri)) {
             // The case where you want to up look up a list of people.
             case FRIEND: {
-                return db.query(
-                        ExampleEntry.PATH_FRIENDS,
+                projection = mapProjection(projection);
+                // The same query is often run again when a loader is recreated
+                QueryResultCache.Key key = new QueryResultCache.Key(uri, projection, selection,
+                        selectionArgs, sortOrder);
+                cursor = mResultCache.get(key);
+                if (cursor != null) {
+                    break;
+                }
+
+                long generation = mResultCache.generation();
+                cursor = queryFriends(
+                        db,
                         projection,
                         selection,
                         selectionArgs,
-                        null,
-                        null,
-                        sortOrder
+                        sortOrder,
+                        null
                 );
+                cursor = mResultCache.put(key, cursor, generation);
+                break;
             }
             // The case where you look up an individual person.
             case FRIEND_WITH_ID: {
-                return db.query(
-                        ExampleEntry.PATH_FRIENDS,
+                long id = ContentUris.parseId(uri);
+                projection = mapProjection(projection);
+                if (FriendRowCache.canServe(projection)) {
+                    cursor = FriendRowCache.toCursor(getFriendRow(db, id), projection);
+                    break;
+                }
+                cursor = queryFriends(
+                        db,
                         projection,
                         ExampleEntry._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))},
-                        null,
-                        null,
-                        sortOrder
+                        new String[]{String.valueOf(id)},
+                        sortOrder,
+                        null
+                );
+                break;
+            }
+            // The cases where you look up one page of people at a time.
+            case FRIEND_PAGE_BY_ID: {
+                cursor = queryPageById(db, uri, mapProjection(projection), selection,
+                        selectionArgs);
+                break;
+            }
+            case FRIEND_PAGE_BY_NAME: {
+                cursor = queryPageByName(db, uri, mapProjection(projection), selection,
+                        selectionArgs);
+                break;
+            }
+            case FRIEND_SEARCH: {
+                cursor = querySearch(db, uri, mapProjection(projection), selection,
+                        selectionArgs);
+                break;
+            }
+            // The cases where the database works out statistics instead of returning people.
+            case FRIEND_AGGREGATE: {
+                cursor = queryAggregate(db, selection, selectionArgs);
+                break;
+            }
+            case FRIEND_HISTOGRAM: {
+                cursor = queryHistogram(db, uri, selection, selectionArgs);
+                break;
+            }
+            case FRIEND_TOP: {
+                // Both columns run backwards along the index on the number of friends and name,
+                // so SQLite can stop after the first rows instead of sorting the table
+                cursor = queryFriends(
+                        db,
+                        mapProjection(projection),
+                        selection,
+                        selectionArgs,
+                        ExampleEntry.NUMBER_OF_FRIENDS + " DESC, " + ExampleEntry.NAME + " DESC",
+                        String.valueOf(getPageSize(uri))
                 );
+                break;
+            }
+            case FRIEND_CHANGES: {
+                cursor = queryChanges(db, uri);
+                break;
+            }
+            case FRIEND_IMPORT: {
+                cursor = queryImport();
+                break;
+            }
+            case STATS: {
+                return queryStats();
+            }
+            case SLOW_QUERIES: {
+                return mSlowQueryLog.toCursor();
             }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
         }
+
+        // Lets loaders holding this cursor know when they need to reload
+        cursor.setNotificationUri(getContext().getContentResolver(), getNotificationUri(uri));
+        return mMetrics.recordQuery(start, cursor);
+    }
+
+    /**
+     * Checks a projection for the friends table against {@link ExampleEntry#PROJECTION_MAP} and
+     * returns the SQL for each column, or {@link ExampleEntry#DEFAULT_PROJECTION} when it's null.
+     * Keeping to known columns means a caller can't read columns the provider doesn't publish,
+     * or add expressions to the query.
+     *
+     * @throws IllegalArgumentException if a column isn't in the map.
+     */
+    static String[] mapProjection(String[] projection) {
+        if (projection == null) {
+            // A new array each time, since the caller is free to change the one it gets
+            return ExampleEntry.DEFAULT_PROJECTION.toArray(
+                    new String[ExampleEntry.DEFAULT_PROJECTION.size()]);
+        }
+        String[] mapped = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            mapped[i] = ExampleEntry.PROJECTION_MAP.get(projection[i]);
+            if (mapped[i] == null) {
+                throw new IllegalArgumentException("Unknown column in projection: " +
+                        projection[i]);
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Runs a query on the friends table, the same way {@link SQLiteDatabase#query} would, except
+     * that it leaves out soft deleted people and goes through the slow query log.
+     */
+    private Cursor queryFriends(SQLiteDatabase db, String[] projection, String selection,
+                                String[] selectionArgs, String orderBy, String limit) {
+        // Soft deleted people are still in the table until they are compacted
+        selection = SqlUtils.concatenateWhere(ExampleDbHelper.WHERE_NOT_DELETED, selection);
+        String sql = SQLiteQueryBuilder.buildQueryString(false, ExampleEntry.PATH_FRIENDS,
+                projection, selection, null, null, orderBy, limit);
+        return mSlowQueryLog.rawQuery(db, sql, selectionArgs);
+    }
+
+    /**
+     * Returns a row of the friends table from the row cache, reading it from the database and
+     * caching it if it isn't there yet.
+     *
+     * @return the row, or null if there is no person with that ID.
+     */
+    private FriendRowCache.Row getFriendRow(SQLiteDatabase db, long id) {
+        FriendRowCache.Row row = mRowCache.get(id);
+        if (row != null) {
+            return row;
+        }
+
+        long generation = mRowCache.generation();
+        Cursor cursor = db.query(
+                ExampleEntry.PATH_FRIENDS,
+                null,
+                ExampleEntry._ID + " = ? AND " + ExampleDbHelper.WHERE_NOT_DELETED,
+                new String[]{String.valueOf(id)},
+                null,
+                null,
+                null
+        );
+        try {
+            if (cursor.moveToFirst()) {
+                row = FriendRowCache.readRow(cursor);
+                mRowCache.put(row, generation);
+            }
+        } finally {
+            cursor.close();
+        }
+        return row;
+    }
+
+    /**
+     * @return the ID of the person with the given name, or -1 if there is no such person.
+     */
+    private static long findIdByName(SQLiteDatabase db, String name) {
+        if (name == null) {
+            return -1;
+        }
+        Cursor cursor = db.query(
+                ExampleEntry.PATH_FRIENDS,
+                new String[]{ExampleEntry._ID},
+                ExampleEntry.NAME + " = ? AND " + ExampleDbHelper.WHERE_NOT_DELETED,
+                new String[]{name},
+                null,
+                null,
+                null
+        );
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the page of people ordered by ID that starts after the
+     * {@link ExampleEntry#PARAM_AFTER_ID} in the URI. The primary key is used to seek straight to
+     * the start of the page.
+     */
+    private Cursor queryPageById(SQLiteDatabase db, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs) {
+        String afterId = getAfterId(uri);
+        if (afterId != null) {
+            selection = SqlUtils.concatenateWhere(selection, ExampleEntry._ID + " > ?");
+            selectionArgs = SqlUtils.appendSelectionArgs(selectionArgs, afterId);
+        }
+        return queryFriends(
+                db,
+                projection,
+                selection,
+                selectionArgs,
+                ExampleEntry._ID,
+                String.valueOf(getPageSize(uri))
+        );
+    }
+
+    /**
+     * Returns the page of people ordered by name and ID that starts after the
+     * {@link ExampleEntry#PARAM_AFTER_NAME} and {@link ExampleEntry#PARAM_AFTER_ID} in the URI.
+     * The index on the name is used to seek straight to the start of the page.
+     */
+    private Cursor queryPageByName(SQLiteDatabase db, Uri uri, String[] projection,
+                                   String selection, String[] selectionArgs) {
+        String afterName = uri.getQueryParameter(ExampleEntry.PARAM_AFTER_NAME);
+        if (afterName != null) {
+            String afterId = getAfterId(uri);
+            if (afterId == null) {
+                throw new IllegalArgumentException("Paging by name needs both the name and ID "
+                        + "of the last row: " + uri);
+            }
+            // The first term bounds the index range, the second skips rows already returned
+            selection = SqlUtils.concatenateWhere(selection,
+                    ExampleEntry.NAME + " >= ? AND (" + ExampleEntry.NAME + " > ? OR " +
+                            ExampleEntry._ID + " > ?)");
+            selectionArgs = SqlUtils.appendSelectionArgs(selectionArgs,
+                    afterName, afterName, afterId);
+        }
+        return queryFriends(
+                db,
+                projection,
+                selection,
+                selectionArgs,
+                ExampleEntry.NAME + ", " + ExampleEntry._ID,
+                String.valueOf(getPageSize(uri))
+        );
+    }
+
+    /**
+     * Returns the people whose names match the search at the end of the URI, best matches first.
+     * The full-text index finds the matching IDs, and only those rows are read and ranked.
+     */
+    private Cursor querySearch(SQLiteDatabase db, Uri uri, String[] projection,
+                               String selection, String[] selectionArgs) {
+        String search = uri.getLastPathSegment().trim();
+        String match = buildFtsPrefixQuery(search);
+        if (match.length() == 0) {
+            // Nothing in the search could match a word, so nothing matches
+            selection = SqlUtils.concatenateWhere(selection, "0");
+        } else {
+            selection = SqlUtils.concatenateWhere(selection, ExampleEntry._ID +
+                    " IN (SELECT docid FROM " + ExampleDbHelper.TABLE_FRIENDS_FTS +
+                    " WHERE " + ExampleDbHelper.TABLE_FRIENDS_FTS + " MATCH ?)");
+            selectionArgs = SqlUtils.appendSelectionArgs(selectionArgs, match);
+        }
+        // Arguments are bound in the order they appear in the statement, so the ones for the
+        // ranking in the ORDER BY go after the ones for the WHERE clause
+        selectionArgs = SqlUtils.appendSelectionArgs(selectionArgs, search, search, search);
+        return queryFriends(
+                db,
+                projection,
+                selection,
+                selectionArgs,
+                "lower(" + ExampleEntry.NAME + ") = lower(?) DESC, " +
+                        "substr(lower(" + ExampleEntry.NAME + "), 1, length(?)) = lower(?) DESC, " +
+                        "length(" + ExampleEntry.NAME + "), " + ExampleEntry.NAME,
+                String.valueOf(getPageSize(uri))
+        );
+    }
+
+    /**
+     * Turns a search into a full-text query matching words that start with each of its words,
+     * for example "Dan Sm" into {@code dan* sm*}. Anything the full-text index wouldn't treat as
+     * part of a word is dropped, so the search can't use the query syntax.
+     */
+    static String buildFtsPrefixQuery(String search) {
+        StringBuilder query = new StringBuilder();
+        boolean inWord = false;
+        for (int i = 0; i < search.length(); i++) {
+            char c = search.charAt(i);
+            // The default tokenizer treats every character outside of ASCII as part of a word
+            boolean wordChar = c >= 0x80 || (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z')
+                    || (c >= 'A' && c <= 'Z');
+            if (wordChar) {
+                if (!inWord && query.length() > 0) {
+                    query.append(' ');
+                }
+                query.append(c);
+            } else if (inWord) {
+                query.append('*');
+            }
+            inWord = wordChar;
+        }
+        if (inWord) {
+            query.append('*');
+        }
+        // Lower case, so that words like OR aren't read as operators
+        return query.toString().toLowerCase(Locale.US);
+    }
+
+    /**
+     * Returns the count, sum, average, minimum and maximum of the number of friends as a single
+     * row. Without a selection, the count and sum come from the summary table and the minimum
+     * and maximum from the ends of the index on the number of friends, so nothing is scanned.
+     */
+    private Cursor queryAggregate(SQLiteDatabase db, String selection,
+                                  String[] selectionArgs) {
+        String friends = ExampleEntry.NUMBER_OF_FRIENDS;
+        String live = " WHERE " + ExampleDbHelper.WHERE_NOT_DELETED;
+        String minMax = "(SELECT MIN(" + friends + ") FROM " + ExampleEntry.PATH_FRIENDS + live +
+                ") AS " + AggregateEntry.MIN + ", " +
+                "(SELECT MAX(" + friends + ") FROM " + ExampleEntry.PATH_FRIENDS + live + ") AS " +
+                AggregateEntry.MAX;
+
+        if (selection == null || selection.length() == 0) {
+            String count = ExampleDbHelper.SUMMARY_ROW_COUNT;
+            String sum = ExampleDbHelper.SUMMARY_FRIENDS_SUM;
+            return mSlowQueryLog.rawQuery(db, "SELECT " +
+                    count + " AS " + AggregateEntry.COUNT + ", " +
+                    sum + " AS " + AggregateEntry.SUM + ", " +
+                    "CASE WHEN " + count + " > 0 THEN CAST(" + sum + " AS REAL) / " + count +
+                    " END AS " + AggregateEntry.AVERAGE + ", " +
+                    minMax +
+                    " FROM " + ExampleDbHelper.TABLE_FRIENDS_SUMMARY, null);
+        }
+
+        return mSlowQueryLog.rawQuery(db, "SELECT " +
+                "COUNT(*) AS " + AggregateEntry.COUNT + ", " +
+                "IFNULL(SUM(" + friends + "), 0) AS " + AggregateEntry.SUM + ", " +
+                "AVG(" + friends + ") AS " + AggregateEntry.AVERAGE + ", " +
+                "MIN(" + friends + ") AS " + AggregateEntry.MIN + ", " +
+                "MAX(" + friends + ") AS " + AggregateEntry.MAX +
+                " FROM " + ExampleEntry.PATH_FRIENDS + " WHERE " +
+                SqlUtils.concatenateWhere(ExampleDbHelper.WHERE_NOT_DELETED, selection),
+                selectionArgs);
+    }
+
+    /**
+     * Returns how many people fall into each bucket of numbers of friends, in one pass over the
+     * index on the number of friends.
+     */
+    private Cursor queryHistogram(SQLiteDatabase db, Uri uri, String selection,
+                                  String[] selectionArgs) {
+        int bucketSize = getBucketSize(uri);
+        String where = " WHERE " +
+                SqlUtils.concatenateWhere(ExampleDbHelper.WHERE_NOT_DELETED, selection);
+        return mSlowQueryLog.rawQuery(db, "SELECT " +
+                "(" + ExampleEntry.NUMBER_OF_FRIENDS + " / " + bucketSize + ") * " + bucketSize +
+                " AS " + AggregateEntry.BUCKET_START + ", " +
+                "COUNT(*) AS " + AggregateEntry.COUNT +
+                " FROM " + ExampleEntry.PATH_FRIENDS + where +
+                " GROUP BY " + AggregateEntry.BUCKET_START +
+                " ORDER BY " + AggregateEntry.BUCKET_START, selectionArgs);
+    }
+
+    /**
+     * Returns the changes after the {@link ChangeEntry#PARAM_SINCE} in the URI, joined to the
+     * people's current values, or a single {@link ChangeEntry#OPERATION_RESET} row if the client
+     * has to load the whole table. The log is read along its primary key, so this costs the same
+     * however many people there are.
+     */
+    private Cursor queryChanges(SQLiteDatabase db, Uri uri) {
+        String log = ExampleDbHelper.TABLE_FRIENDS_CHANGES;
+        String seq = ChangeEntry.SEQUENCE;
+        String since = uri.getQueryParameter(ChangeEntry.PARAM_SINCE);
+        long sinceSeq;
+        try {
+            sinceSeq = (since == null) ? -1 : Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid sequence number: " + since);
+        }
+
+        Cursor changes = mSlowQueryLog.rawQuery(db, "SELECT " +
+                "c." + seq + " AS " + seq + ", " +
+                "c." + ChangeEntry.FRIEND_ID + " AS " + ChangeEntry.FRIEND_ID + ", " +
+                "c." + ChangeEntry.OPERATION + " AS " + ChangeEntry.OPERATION + ", " +
+                "f." + ExampleEntry.NAME + " AS " + ExampleEntry.NAME + ", " +
+                "f." + ExampleEntry.NUMBER_OF_FRIENDS + " AS " + ExampleEntry.NUMBER_OF_FRIENDS +
+                " FROM " + log + " c LEFT JOIN " + ExampleEntry.PATH_FRIENDS + " f ON f." +
+                ExampleEntry._ID + " = c." + ChangeEntry.FRIEND_ID + " AND f." +
+                ExampleDbHelper.WHERE_NOT_DELETED +
+                " WHERE c." + seq + " > ? ORDER BY c." + seq + " LIMIT " + getPageSize(uri),
+                new String[] {String.valueOf(sinceSeq)});
+        // Reads the changes now, so that checking the log's bounds afterwards covers them. The
+        // log is only ever trimmed from the oldest end, so if nothing the client needs has been
+        // trimmed by now, nothing had been when the changes were read.
+        changes.getCount();
+
+        // The oldest change still in the log, or the one after the latest if the log is empty.
+        // If the client hasn't seen the one before it, it has missed some changes.
+        Cursor bounds = db.rawQuery("SELECT " +
+                "IFNULL((SELECT MAX(seq) FROM sqlite_sequence WHERE name = ?), 0), " +
+                "(SELECT MIN(" + seq + ") FROM " + log + ")", new String[] {log});
+        long latest;
+        long oldest;
+        try {
+            bounds.moveToFirst();
+            latest = bounds.getLong(0);
+            oldest = bounds.isNull(1) ? latest + 1 : bounds.getLong(1);
+        } finally {
+            bounds.close();
+        }
+        if (sinceSeq >= oldest - 1 && sinceSeq <= latest) {
+            return changes;
+        }
+
+        changes.close();
+        MatrixCursor reset = new MatrixCursor(new String[] {seq, ChangeEntry.FRIEND_ID,
+                ChangeEntry.OPERATION, ExampleEntry.NAME, ExampleEntry.NUMBER_OF_FRIENDS}, 1);
+        reset.addRow(new Object[] {latest, null, ChangeEntry.OPERATION_RESET, null, null});
+        return reset;
+    }
+
+    /**
+     * Returns the progress of the last import as a single row.
+     */
+    private Cursor queryImport() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {ImportEntry.STATE,
+                ImportEntry.ROWS_READ, ImportEntry.ROWS_INSERTED, ImportEntry.ERRORS,
+                ImportEntry.MESSAGE});
+        FriendsImporter importer;
+        synchronized (this) {
+            importer = mImporter;
+        }
+        if (importer == null) {
+            cursor.addRow(new Object[] {ImportEntry.STATE_IDLE, 0, 0, 0, null});
+        } else {
+            cursor.addRow(new Object[] {importer.getState(), importer.getRowsRead(),
+                    importer.getRowsInserted(), importer.getErrors(), importer.getMessage()});
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns the provider's counters as rows of {@link StatsEntry#KEY} and
+     * {@link StatsEntry#VALUE}.
+     */
+    private Cursor queryStats() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {StatsEntry.KEY, StatsEntry.VALUE});
+        cursor.addRow(new Object[] {StatsEntry.NOTIFICATIONS_REQUESTED,
+                mNotifier.getNotificationsRequested()});
+        cursor.addRow(new Object[] {StatsEntry.NOTIFICATIONS_SENT,
+                mNotifier.getNotificationsSent()});
+        cursor.addRow(new Object[] {StatsEntry.NOTIFICATIONS_SUPPRESSED,
+                mNotifier.getNotificationsSuppressed()});
+        cursor.addRow(new Object[] {StatsEntry.ROW_CACHE_HITS, mRowCache.hitCount()});
+        cursor.addRow(new Object[] {StatsEntry.ROW_CACHE_MISSES, mRowCache.missCount()});
+        cursor.addRow(new Object[] {StatsEntry.ROW_CACHE_EVICTIONS, mRowCache.evictionCount()});
+        cursor.addRow(new Object[] {StatsEntry.ROW_CACHE_BYTES, mRowCache.size()});
+        cursor.addRow(new Object[] {StatsEntry.RESULT_CACHE_HITS, mResultCache.hitCount()});
+        cursor.addRow(new Object[] {StatsEntry.RESULT_CACHE_MISSES, mResultCache.missCount()});
+        mMetrics.addTo(cursor);
+        return cursor;
     }
 
     @Override
@@ -126,20 +809,47 @@ public class ExampleProvider extends ContentProvider {
     // put validation in a common method so that it can be used in on upgrade as well
     // add these validation methods to the contract
     public Uri insert(Uri uri, ContentValues contentValues) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
         checkInput(contentValues);
 
         switch (sUriMatcher.match(uri)) {
             case FRIEND: {
-                long id = db.insert(ExampleEntry.PATH_FRIENDS, null, contentValues);
+                int conflict = getConflict(uri);
+                checkUpsert(conflict, contentValues);
+                long id;
+                if (conflict == BulkInserter.CONFLICT_NONE) {
+                    id = db.insert(ExampleEntry.PATH_FRIENDS, null, contentValues);
+                } else {
+                    // Upserts are a single INSERT OR ... statement, see BulkInserter
+                    BulkInserter inserter = newFriendsInserter(db, 1, conflict);
+                    try {
+                        id = inserter.insertRow(contentValues);
+                    } finally {
+                        inserter.close();
+                    }
+                    if (id == -1 && conflict == BulkInserter.CONFLICT_IGNORE) {
+                        // Nothing changed, so there is no one to notify
+                        long existingId = findIdByName(db,
+                                contentValues.getAsString(ExampleEntry.NAME));
+                        mMetrics.record(ProviderMetrics.INSERT, start, 0);
+                        return existingId == -1 ? null
+                                : ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, existingId);
+                    }
+                    // A replaced person keeps their ID, so they may be in the row cache
+                    mRowCache.invalidate(id);
+                }
 
+                mMetrics.record(ProviderMetrics.INSERT, start, id == -1 ? 0 : 1);
                 if (id == -1) return null; // it failed!
 
-                // This is where you update anything that might also be watching the content provider
-                getContext().getContentResolver().notifyChange(uri, null);
+                // This is where you update anything that might also be watching the content
+                // provider. Only this person changed, so observers of other people can ignore it.
+                Uri rowUri = ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id);
+                notifyChange(rowUri);
 
-                return ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id);
+                return rowUri;
             }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -151,39 +861,36 @@ public class ExampleProvider extends ContentProvider {
     // TODO
     // If return count is not = 0 then notify
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case FRIEND:
+                // Check all of the data is okay before anything is written
+                checkInput(values);
+                int conflict = getConflict(uri);
+                checkUpsert(conflict, values);
 
-                // Allows you to issue multiple transactions and then have them executed in a batch
-                db.beginTransaction();
-
-                // Counts the number of inserts that are successful
-                int numberInserted = 0;
-                try {
-                    for (ContentValues value : values) {
-                        // Check the data is okay
-                        checkInput(value);
-                        // Try to insert
-                        long _id = db.insert(ExampleEntry.PATH_FRIENDS, null, value);
-                        // As long as the insert didn't fail, increment the numberInserted
-                        if (_id != -1) {
-                            numberInserted++;
-                        }
-                    }
-                    // If you get to the end without an exception, set the transaction as successful
-                    // No further database operations should be done after this call.
-                    db.setTransactionSuccessful();
-                } finally {
-                    // Causes all of the issued transactions to occur at once
-                    db.endTransaction();
+                // Compiles one INSERT statement per column shape and commits in chunks, instead
+                // of building and compiling the SQL again for every row
+                BulkInserter inserter = newFriendsInserter(db, getChunkSize(uri), conflict);
+                int numberInserted = inserter.insert(values);
+                if (conflict == BulkInserter.CONFLICT_REPLACE
+                        || conflict == BulkInserter.CONFLICT_MERGE) {
+                    mRowCache.invalidateAll();
+                }
+                if (numberInserted >= CHECKPOINT_AFTER_ROWS) {
+                    mDbHelper.checkpoint();
                 }
+
                 if (numberInserted > 0) {
                     // Notifies the content resolver that the underlying data has changed
-                    getContext().getContentResolver().notifyChange(uri, null);
+                    notifyChange(ExampleEntry.CONTENT_URI);
                 }
+                mMetrics.record(ProviderMetrics.BULK_INSERT, start, numberInserted);
                 return numberInserted;
+            case FRIEND_BATCH_UPDATE:
+                return updateBatch(values);
             default:
                 // The default case is not optimized
                 return super.bulkInsert(uri, values);
@@ -193,27 +900,43 @@ public class ExampleProvider extends ContentProvider {
     @Override
     // TODO Also do valiations here check between 0 and 5
     public int update(Uri uri, ContentValues contentValues, String where, String[] whereargs) {
+        if (sUriMatcher.match(uri) == STATS) {
+            return updateStats(contentValues);
+        }
+        if (sUriMatcher.match(uri) == SLOW_QUERIES) {
+            return updateSlowQueryLog(contentValues);
+        }
+
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
         int numberUpdated = 0;
+        Uri changedUri;
 
         checkInput(contentValues);
 
         switch (sUriMatcher.match(uri)) {
             case FRIEND: {
+                // Changes every person matching the selection, in one statement
                 numberUpdated = db.update(
                         ExampleEntry.PATH_FRIENDS,
                         contentValues,
-                        null,
-                        null);
+                        SqlUtils.concatenateWhere(ExampleDbHelper.WHERE_NOT_DELETED, where),
+                        whereargs);
+                mRowCache.invalidateAll();
+                changedUri = ExampleEntry.CONTENT_URI;
                 break;
             }
             case FRIEND_WITH_ID: {
+                long id = ContentUris.parseId(uri);
                 numberUpdated = db.update(
                         ExampleEntry.PATH_FRIENDS,
                         contentValues,
-                        ExampleEntry._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))}
+                        SqlUtils.concatenateWhere(ExampleEntry._ID + " = ? AND " +
+                                ExampleDbHelper.WHERE_NOT_DELETED, where),
+                        SqlUtils.appendSelectionArgs(new String[]{String.valueOf(id)}, whereargs)
                 );
+                mRowCache.invalidate(id);
+                changedUri = ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id);
                 break;
             }
             default: {
@@ -222,39 +945,363 @@ public class ExampleProvider extends ContentProvider {
         }
 
         if (numberUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(changedUri);
+        }
+        mMetrics.record(ProviderMetrics.UPDATE, start, numberUpdated);
+        return numberUpdated;
+    }
+
+    /**
+     * Applies a different change to each person, all in one transaction. See
+     * {@link ExampleEntry#BATCH_UPDATE_URI}.
+     */
+    private int updateBatch(ContentValues[] values) {
+        final long start = mMetrics.start();
+        checkInput(values);
+
+        BulkUpdater updater = new BulkUpdater(mDbHelper.getWritableDatabase(),
+                ExampleEntry.PATH_FRIENDS, ExampleEntry._ID, ExampleDbHelper.WHERE_NOT_DELETED);
+        updater.setMetrics(mMetrics);
+        int numberUpdated = updater.update(values);
+        for (ContentValues value : values) {
+            mRowCache.invalidate(value.getAsLong(ExampleEntry._ID));
+        }
+
+        if (numberUpdated != 0) {
+            if (values.length <= MAX_ROW_NOTIFICATIONS) {
+                // A few row notifications let observers patch those people in place
+                for (ContentValues value : values) {
+                    notifyChange(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                            value.getAsLong(ExampleEntry._ID)));
+                }
+            } else {
+                notifyChange(ExampleEntry.CONTENT_URI);
+            }
         }
+        mMetrics.record(ProviderMetrics.UPDATE, start, numberUpdated);
         return numberUpdated;
     }
 
+    /**
+     * Changes the provider's settings. Only {@link StatsEntry#METRICS_ENABLED} can be set.
+     */
+    private int updateStats(ContentValues values) {
+        Boolean enabled = values.getAsBoolean(StatsEntry.METRICS_ENABLED);
+        if (enabled == null || values.size() != 1) {
+            throw new IllegalArgumentException("Only " + StatsEntry.METRICS_ENABLED +
+                    " can be updated: " + values);
+        }
+        mMetrics.setEnabled(enabled);
+        return 1;
+    }
+
+    /**
+     * Changes the slow query log's settings. Only {@link SlowQueryEntry#THRESHOLD_MILLIS} can be
+     * set.
+     */
+    private int updateSlowQueryLog(ContentValues values) {
+        Long threshold = values.getAsLong(SlowQueryEntry.THRESHOLD_MILLIS);
+        if (threshold == null || values.size() != 1) {
+            throw new IllegalArgumentException("Only " + SlowQueryEntry.THRESHOLD_MILLIS +
+                    " can be updated: " + values);
+        }
+        mSlowQueryLog.setThresholdMillis(threshold);
+        return 1;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long start = mMetrics.start();
         final SQLiteDatabase db = mDbHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int numberDeleted;
+        Uri changedUri;
         switch (match) {
+            case STATS:
+                // Resets the timings. The caches and notifications keep counting.
+                mMetrics.reset();
+                return 0;
+            case SLOW_QUERIES:
+                return mSlowQueryLog.clear();
             case FRIEND:
-                numberDeleted = db.delete(
-                        ExampleEntry.PATH_FRIENDS, null, null);
+                numberDeleted = deleteFriends(db, uri, selection, selectionArgs);
+                mRowCache.invalidateAll();
+                changedUri = ExampleEntry.CONTENT_URI;
                 break;
             case FRIEND_WITH_ID:
-                numberDeleted = db.delete(
-                        ExampleEntry.PATH_FRIENDS,
-                        ExampleEntry._ID + " = ?",
-                        new String[]{String.valueOf(ContentUris.parseId(uri))});
+                long id = ContentUris.parseId(uri);
+                numberDeleted = deleteFriends(
+                        db,
+                        uri,
+                        SqlUtils.concatenateWhere(ExampleEntry._ID + " = ?", selection),
+                        SqlUtils.appendSelectionArgs(new String[]{String.valueOf(id)},
+                                selectionArgs));
+                mRowCache.invalidate(id);
+                changedUri = ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id);
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
 
-        // The first condition works because a null deletes all rows
-        if (selection == null || numberDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        if (numberDeleted != 0) {
+            notifyChange(changedUri);
+        }
+
+        mMetrics.record(ProviderMetrics.DELETE, start, numberDeleted);
+        return numberDeleted;
+    }
+
+    /**
+     * Deletes the people matching the selection, or only marks them deleted if the URI has
+     * {@link ExampleEntry#PARAM_SOFT_DELETE}. People who are already marked aren't counted
+     * again.
+     */
+    private int deleteFriends(SQLiteDatabase db, Uri uri, String selection,
+                              String[] selectionArgs) {
+        selection = SqlUtils.concatenateWhere(ExampleDbHelper.WHERE_NOT_DELETED, selection);
+        if (!Boolean.parseBoolean(uri.getQueryParameter(ExampleEntry.PARAM_SOFT_DELETE))) {
+            return db.delete(ExampleEntry.PATH_FRIENDS, selection, selectionArgs);
         }
 
+        // Setting the flag is a small write per person, where a delete would also remove them
+        // from every index and free their pages. The triggers take them out of the summary and
+        // the full-text index straight away.
+        ContentValues values = new ContentValues();
+        values.put(ExampleDbHelper.COLUMN_DELETED, 1);
+        int numberDeleted = db.update(ExampleEntry.PATH_FRIENDS, values, selection,
+                selectionArgs);
+        if (numberDeleted > 0) {
+            scheduleCompaction();
+        }
         return numberDeleted;
     }
 
+    /**
+     * Runs the {@link TombstoneCompactor} a little while after the last soft delete, so a burst
+     * of deletes is compacted once.
+     */
+    private synchronized void scheduleCompaction() {
+        if (mCompactionHandler == null) {
+            HandlerThread thread = new HandlerThread("friends-compactor",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mCompactionHandler = new Handler(thread.getLooper());
+            mCompactor = new TombstoneCompactor(mDbHelper.getWritableDatabase(),
+                    COMPACTION_BATCH_SIZE, COMPACTION_VACUUM_PAGES, COMPACTION_PAUSE_MILLIS);
+        }
+        mCompactionHandler.removeCallbacks(mCompactor);
+        mCompactionHandler.postDelayed(mCompactor, COMPACTION_DELAY_MILLIS);
+    }
+
+    /**
+     * Applies all of the operations in a single transaction. Operations built with
+     * {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)} give other threads a
+     * chance to use the database before they run, and observers are only notified once the whole
+     * batch has been committed.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final long start = mMetrics.start();
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        final int numberOfOperations = operations.size();
+        final ContentProviderResult[] results = new ContentProviderResult[numberOfOperations];
+        boolean successful = false;
+
+        db.beginTransaction();
+        mNotifier.beginBatch();
+        try {
+            for (int i = 0; i < numberOfOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > 0 && operation.isYieldAllowed()) {
+                    // Commits what has been done so far if another thread is waiting on the lock.
+                    // Those changes stay even if a later operation fails, so they are notified now.
+                    if (db.yieldIfContendedSafely()) {
+                        mNotifier.flushBatch();
+                    }
+                }
+                results[i] = operation.apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            db.endTransaction();
+            mMetrics.recordTransaction(start);
+            // Other threads may have cached results from before the batch committed
+            mRowCache.invalidateAll();
+            mResultCache.invalidateAll();
+            mNotifier.endBatch(successful);
+        }
+        mMetrics.record(ProviderMetrics.APPLY_BATCH, start, numberOfOperations);
+        return results;
+    }
+
+    /**
+     * Opens the export URI for reading, or the import URI for writing. The table is written into,
+     * or read out of, a pipe by a background thread while the caller is at the other end, so
+     * neither side ever holds more than a page of rows.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        switch (sUriMatcher.match(uri)) {
+            case FRIEND_EXPORT: {
+                if (!"r".equals(mode)) {
+                    throw new FileNotFoundException("The export can only be read: " + uri);
+                }
+                final ParcelFileDescriptor[] pipe;
+                try {
+                    pipe = ParcelFileDescriptor.createPipe();
+                } catch (IOException e) {
+                    throw new FileNotFoundException("Could not create a pipe: " + e);
+                }
+                final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+                new Thread("friends-export") {
+                    @Override
+                    public void run() {
+                        exportFriends(db, pipe[1]);
+                    }
+                }.start();
+                return pipe[0];
+            }
+            case FRIEND_IMPORT: {
+                if (!mode.startsWith("w")) {
+                    throw new FileNotFoundException("The import can only be written: " + uri);
+                }
+                return startImport(uri);
+            }
+            default: {
+                throw new FileNotFoundException("Unknown uri: " + uri);
+            }
+        }
+    }
+
+    /**
+     * Starts a thread which imports whatever is written into the returned end of a pipe.
+     */
+    private synchronized ParcelFileDescriptor startImport(Uri uri) throws FileNotFoundException {
+        if (mImporter != null && mImporter.isRunning()) {
+            throw new FileNotFoundException("An import is already running");
+        }
+        // Checked before the pipe is created, so that a bad URI doesn't leak it
+        int chunkSize = getChunkSize(uri);
+        final int conflict = getConflict(uri);
+
+        ParcelFileDescriptor[] pipe;
+        try {
+            pipe = ParcelFileDescriptor.createPipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Could not create a pipe: " + e);
+        }
+        BulkInserter inserter = newFriendsInserter(mDbHelper.getWritableDatabase(), chunkSize,
+                conflict);
+        mImporter = new FriendsImporter(inserter, chunkSize, sValidator, pipe[0],
+                new FriendsImporter.Listener() {
+                    @Override
+                    public void onProgress(FriendsImporter importer) {
+                        if (conflict == BulkInserter.CONFLICT_REPLACE
+                                || conflict == BulkInserter.CONFLICT_MERGE) {
+                            mRowCache.invalidateAll();
+                        }
+                        notifyChange(ExampleEntry.CONTENT_URI);
+                        notifyChange(ImportEntry.CONTENT_URI);
+                    }
+                });
+        new Thread(mImporter, "friends-import").start();
+        return pipe[1];
+    }
+
+    /**
+     * Writes every person into the pipe in {@link FriendsBinaryFormat}, a page at a time, and
+     * closes it. Each page seeks past the last ID of the one before, like
+     * {@link #queryPageById}, so there is never a cursor over the whole table.
+     * <p>
+     * Pages are read separately, so people written while the export runs may or may not be in
+     * it.
+     */
+    private static void exportFriends(SQLiteDatabase db, ParcelFileDescriptor pipe) {
+        final String[] projection = new String[] {
+                ExampleEntry._ID, ExampleEntry.NAME, ExampleEntry.NUMBER_OF_FRIENDS};
+        final String[] selectionArgs = new String[1];
+        final String limit = String.valueOf(EXPORT_PAGE_SIZE);
+
+        OutputStream out = new BufferedOutputStream(
+                new ParcelFileDescriptor.AutoCloseOutputStream(pipe), EXPORT_BUFFER_BYTES);
+        int exported = 0;
+        try {
+            FriendsBinaryFormat.Writer writer = new FriendsBinaryFormat.Writer(out);
+            long lastId = Long.MIN_VALUE;
+            int rowsInPage;
+            do {
+                selectionArgs[0] = String.valueOf(lastId);
+                Cursor cursor = db.query(ExampleEntry.PATH_FRIENDS, projection,
+                        ExampleEntry._ID + " > ? AND " + ExampleDbHelper.WHERE_NOT_DELETED,
+                        selectionArgs, null, null,
+                        ExampleEntry._ID, limit);
+                try {
+                    rowsInPage = 0;
+                    while (cursor.moveToNext()) {
+                        lastId = cursor.getLong(0);
+                        writer.writeRow(lastId, cursor.getString(1), cursor.getInt(2));
+                        rowsInPage++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                exported += rowsInPage;
+            } while (rowsInPage == EXPORT_PAGE_SIZE);
+            writer.finish();
+            Log.d(LOG_TAG, "Exported " + exported + " people");
+        } catch (IOException e) {
+            // Most likely the reader closed its end early
+            Log.w(LOG_TAG, "Export stopped after " + exported + " people", e);
+        } catch (RuntimeException e) {
+            // This runs on a thread of its own, where an uncaught exception would end the app.
+            // The stream is closed without its end marker, so the reader sees it was cut short.
+            Log.e(LOG_TAG, "Export failed after " + exported + " people", e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Nothing left to do with it
+            }
+        }
+    }
+
+    /**
+     * Works out which URI a cursor returned for {@code uri} should watch. A single person only
+     * needs to hear about changes to themselves. Everything else read from the friends table,
+     * like pages and aggregates, watches {@link ExampleEntry#CONTENT_URI} so it also hears about
+     * changes to single people, which are notified on the person's own URI.
+     */
+    private static Uri getNotificationUri(Uri uri) {
+        switch (sUriMatcher.match(uri)) {
+            case FRIEND_WITH_ID:
+                return ContentUris.withAppendedId(ExampleEntry.CONTENT_URI,
+                        ContentUris.parseId(uri));
+            case FRIEND_IMPORT:
+                return ImportEntry.CONTENT_URI;
+            default:
+                return ExampleEntry.CONTENT_URI;
+        }
+    }
+
+    /**
+     * Tells observers that the data behind the URI has changed. Notifications are coalesced, so
+     * observers hear about it shortly afterwards, or when the current batch is committed. Cached
+     * query results for the URI are dropped straight away.
+     * <p>
+     * A change to a single person is also notified on {@link ChangeEntry#CONTENT_URI}, since
+     * the person's own URI doesn't reach observers of the change log. Changes to the whole table
+     * already reach them, as the log's URI is below it.
+     */
+    private void notifyChange(Uri uri) {
+        mResultCache.invalidate(uri);
+        mNotifier.notifyChange(uri);
+        if (sUriMatcher.match(uri) == FRIEND_WITH_ID) {
+            mNotifier.notifyChange(ChangeEntry.CONTENT_URI);
+        }
+    }
+
     @Override
     public String getType(Uri uri) {
         switch (sUriMatcher.match(uri)) {
@@ -264,6 +1311,36 @@ public class ExampleProvider extends ContentProvider {
             case FRIEND_WITH_ID: {
                 return ExampleEntry.CONTENT_ITEM_TYPE;
             }
+            case FRIEND_PAGE_BY_ID:
+            case FRIEND_PAGE_BY_NAME: {
+                return ExampleEntry.CONTENT_DIR_TYPE;
+            }
+            case FRIEND_SEARCH:
+            case FRIEND_TOP:
+            case FRIEND_BATCH_UPDATE: {
+                return ExampleEntry.CONTENT_DIR_TYPE;
+            }
+            case FRIEND_AGGREGATE: {
+                return AggregateEntry.CONTENT_ITEM_TYPE;
+            }
+            case FRIEND_CHANGES: {
+                return ChangeEntry.CONTENT_DIR_TYPE;
+            }
+            case FRIEND_HISTOGRAM: {
+                return AggregateEntry.HISTOGRAM_DIR_TYPE;
+            }
+            case FRIEND_EXPORT: {
+                return ExampleEntry.EXPORT_MIME_TYPE;
+            }
+            case FRIEND_IMPORT: {
+                return ImportEntry.CONTENT_ITEM_TYPE;
+            }
+            case STATS: {
+                return StatsEntry.CONTENT_DIR_TYPE;
+            }
+            case SLOW_QUERIES: {
+                return SlowQueryEntry.CONTENT_DIR_TYPE;
+            }
             default: {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+
+/**
+ * One person from the friends table, for code that keeps people in memory rather than in a
+ * {@link Cursor}. Two people are equal if all of their columns are.
+ */
+public final class Friend {
+
+    private final long mId;
+    private final String mName;
+    private final int mNumberOfFriends;
+
+    public Friend(long id, String name, int numberOfFriends) {
+        mId = id;
+        mName = name;
+        mNumberOfFriends = numberOfFriends;
+    }
+
+    /**
+     * Reads the person at the cursor's current position. The cursor must have the
+     * {@link ExampleEntry#DEFAULT_PROJECTION} columns.
+     */
+    public static Friend fromCursor(Cursor cursor) {
+        return new Friend(
+                cursor.getLong(cursor.getColumnIndexOrThrow(ExampleEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ExampleEntry.NAME)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ExampleEntry.NUMBER_OF_FRIENDS)));
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public int getNumberOfFriends() {
+        return mNumberOfFriends;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Friend)) return false;
+        Friend other = (Friend) o;
+        return mId == other.mId
+                && mNumberOfFriends == other.mNumberOfFriends
+                && (mName == null ? other.mName == null : mName.equals(other.mName));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mId ^ (mId >>> 32));
+        result = 31 * result + (mName == null ? 0 : mName.hashCode());
+        result = 31 * result + mNumberOfFriends;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return mId + ": " + mName + " (" + mNumberOfFriends + ")";
+    }
+}
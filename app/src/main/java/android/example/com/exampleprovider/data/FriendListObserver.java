@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps an in-memory list of every person up to date. The provider notifies a change to a single
+ * person on the person's own Uri (see {@link ExampleEntry#CONTENT_URI}), so when one person
+ * changes this only reads that person again and patches them into the list, instead of running
+ * the query for the whole table again. Changes to many people at once still need the whole list
+ * to be loaded again, which the {@link Listener} is asked to do.
+ * <p>
+ * Give it the people to start from with {@link #setFriends(List)}, then {@link #register()} it.
+ * The list must hold the whole table, sorted by the comparator, since a person who changes is
+ * put back wherever the comparator says. The list and the listener are only used on the main
+ * thread. The people are read again on a background thread.
+ */
+public class FriendListObserver extends ContentObserver {
+    private static final String LOG_TAG = FriendListObserver.class.getSimpleName();
+
+    // The columns Friend.fromCursor reads
+    private static final String[] PROJECTION = ExampleEntry.DEFAULT_PROJECTION.toArray(
+            new String[ExampleEntry.DEFAULT_PROJECTION.size()]);
+
+    /**
+     * Orders people by {@link ExampleEntry#_ID}, the order of the friends Uri with no sort order.
+     */
+    public static final Comparator<Friend> BY_ID = new Comparator<Friend>() {
+        @Override
+        public int compare(Friend lhs, Friend rhs) {
+            return lhs.getId() < rhs.getId() ? -1 : (lhs.getId() == rhs.getId() ? 0 : 1);
+        }
+    };
+
+    /**
+     * Returned by {@link #getChangedId(Uri)} when many people may have changed.
+     */
+    public static final long CHANGED_ALL = -1;
+
+    /**
+     * Returned by {@link #getChangedId(Uri)} when the change isn't to the people, like the
+     * progress of an import.
+     */
+    public static final long CHANGED_NONE = -2;
+
+    /**
+     * Told on the main thread what happened to the list.
+     */
+    public interface Listener {
+        /**
+         * A person changed and the list has been patched.
+         *
+         * @param friends the list after the change. It may only be read.
+         */
+        void onFriendsChanged(List<Friend> friends);
+
+        /**
+         * Many people may have changed, so the whole list should be loaded again and passed to
+         * {@link #setFriends(List)}.
+         */
+        void onReloadNeeded();
+    }
+
+    private final ContentResolver mResolver;
+    private final Comparator<Friend> mComparator;
+    private final Listener mListener;
+    private final Handler mWorkHandler;
+    private final Handler mMainHandler;
+
+    // Only touched on the main thread
+    private final List<Friend> mFriends = new ArrayList<Friend>();
+    private final List<Friend> mReadOnlyFriends = Collections.unmodifiableList(mFriends);
+
+    // Goes up each time the list is replaced, so people read before that can be read again
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    public FriendListObserver(ContentResolver resolver, Comparator<Friend> comparator,
+                              Listener listener) {
+        this(resolver, comparator, listener, startWorkThread());
+    }
+
+    private FriendListObserver(ContentResolver resolver, Comparator<Friend> comparator,
+                               Listener listener, Handler workHandler) {
+        // Changes are delivered on the work thread, where the changed person is read again
+        super(workHandler);
+        mResolver = resolver;
+        mComparator = comparator;
+        mListener = listener;
+        mWorkHandler = workHandler;
+        mMainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    private static Handler startWorkThread() {
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    /**
+     * Starts watching the friends table, including changes to single people.
+     */
+    public void register() {
+        mResolver.registerContentObserver(ExampleEntry.CONTENT_URI, true, this);
+    }
+
+    /**
+     * Stops watching the friends table. The observer can't be registered again afterwards.
+     */
+    public void unregister() {
+        mResolver.unregisterContentObserver(this);
+        mMainHandler.removeCallbacksAndMessages(null);
+        mWorkHandler.getLooper().quit();
+    }
+
+    /**
+     * Replaces the list with freshly loaded people. Must be called on the main thread.
+     */
+    public void setFriends(List<Friend> friends) {
+        mGeneration.incrementAndGet();
+        mFriends.clear();
+        mFriends.addAll(friends);
+        Collections.sort(mFriends, mComparator);
+    }
+
+    /**
+     * The people in the list. Must be read on the main thread.
+     */
+    public List<Friend> getFriends() {
+        return mReadOnlyFriends;
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        // Before Jelly Bean there is no Uri to say what changed
+        requestReload();
+    }
+
+    @Override
+    public void onChange(boolean selfChange, Uri uri) {
+        long id = getChangedId(uri);
+        if (id == CHANGED_ALL) {
+            requestReload();
+        } else if (id != CHANGED_NONE) {
+            loadFriend(id);
+        }
+    }
+
+    /**
+     * Works out which person a change notified on the friends Uri is about.
+     *
+     * @param uri the Uri the change was notified on, or null if the platform didn't say
+     * @return the ID of the one person who changed, {@link #CHANGED_ALL} if many people may have
+     * changed, or {@link #CHANGED_NONE} if the change isn't to the people
+     */
+    public static long getChangedId(Uri uri) {
+        if (uri == null) {
+            return CHANGED_ALL;
+        }
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() == 1) {
+            // The whole table
+            return CHANGED_ALL;
+        } else if (segments.size() == 2 && isId(segments.get(1))) {
+            return Long.parseLong(segments.get(1));
+        }
+        return CHANGED_NONE;
+    }
+
+    private static boolean isId(String segment) {
+        if (segment.length() == 0 || segment.length() > 18) return false;
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private void requestReload() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onReloadNeeded();
+            }
+        });
+    }
+
+    /**
+     * Reads one person again on the work thread, then patches them into the list on the main
+     * thread.
+     */
+    private void loadFriend(final long id) {
+        final int generation = mGeneration.get();
+        Friend friend = null;
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(ExampleEntry.CONTENT_URI, id),
+                PROJECTION, null, null, null);
+        if (cursor == null) {
+            Log.w(LOG_TAG, "Couldn't read person " + id);
+            requestReload();
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                friend = Friend.fromCursor(cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        final Friend changed = friend;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mGeneration.get()) {
+                    // The list was replaced while the person was read. It may be newer than what
+                    // was read, so read them again rather than risk putting an old copy back.
+                    mWorkHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadFriend(id);
+                        }
+                    });
+                    return;
+                }
+                if (replaceFriend(mFriends, id, changed, mComparator)) {
+                    mListener.onFriendsChanged(mReadOnlyFriends);
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the person with the ID from a list sorted by {@code comparator}, and puts
+     * {@code friend} in its place in the order.
+     *
+     * @param friend the person as they are now, or null if they were deleted
+     * @return whether the list changed
+     */
+    public static boolean replaceFriend(List<Friend> friends, long id, Friend friend,
+                                        Comparator<Friend> comparator) {
+        int index = indexOf(friends, id, comparator);
+        if (index >= 0) {
+            if (friends.get(index).equals(friend)) {
+                // Notified, but nothing the list shows changed
+                return false;
+            }
+            friends.remove(index);
+        } else if (friend == null) {
+            // Someone the list never had was deleted
+            return false;
+        }
+
+        if (friend != null) {
+            int position = Collections.binarySearch(friends, friend, comparator);
+            friends.add(position < 0 ? -position - 1 : position, friend);
+        }
+        return true;
+    }
+
+    private static int indexOf(List<Friend> friends, long id, Comparator<Friend> comparator) {
+        if (comparator == BY_ID) {
+            int position = Collections.binarySearch(friends, new Friend(id, null, 0), BY_ID);
+            return position < 0 ? -1 : position;
+        }
+        // Any other order says nothing about where the ID is
+        for (int i = 0; i < friends.size(); i++) {
+            if (friends.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.support.v4.util.LruCache;
+
+/**
+ * A least recently used cache of single rows of the friends table, keyed by {@code _ID}.
+ * <p>
+ * The cache is limited to a number of bytes rather than a number of rows. Every write that can
+ * change a cached row must call {@link #invalidate(long)} or {@link #invalidateAll()}.
+ */
+class FriendRowCache {
+
+    /**
+     * The columns of a cached row, in table order.
+     */
+    private static final String[] COLUMNS = new String[] {
+            ExampleEntry._ID,
+            ExampleEntry.NAME,
+            ExampleEntry.NUMBER_OF_FRIENDS
+    };
+
+    private final LruCache<Long, Row> mCache;
+
+    // Bumped by every invalidation, so a row read from the database before a write can't be put
+    // into the cache after it. Guarded by this.
+    private long mGeneration;
+
+    FriendRowCache(int maxBytes) {
+        mCache = new LruCache<Long, Row>(maxBytes) {
+            @Override
+            protected int sizeOf(Long id, Row row) {
+                return row.sizeInBytes();
+            }
+        };
+    }
+
+    /**
+     * @return whether a cached row has every column in the projection.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (columnIndex(column) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the cached row, or null if it isn't cached.
+     */
+    Row get(long id) {
+        return mCache.get(id);
+    }
+
+    /**
+     * @return a token to pass to {@link #put(Row, long)}. It must be taken before the row is
+     * read from the database.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches a row read from the database, unless it may have changed since {@code generation}
+     * was taken.
+     */
+    synchronized void put(Row row, long generation) {
+        if (generation == mGeneration) {
+            mCache.put(row.id, row);
+        }
+    }
+
+    synchronized void invalidate(long id) {
+        mGeneration++;
+        mCache.remove(id);
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mCache.evictAll();
+    }
+
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /**
+     * @return the estimated number of bytes used by the cached rows.
+     */
+    int size() {
+        return mCache.size();
+    }
+
+    /**
+     * Reads the current row from a cursor over the friends table, which must include every
+     * column of the table.
+     */
+    static Row readRow(Cursor cursor) {
+        return new Row(
+                cursor.getLong(cursor.getColumnIndexOrThrow(ExampleEntry._ID)),
+                cursor.getString(cursor.getColumnIndexOrThrow(ExampleEntry.NAME)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ExampleEntry.NUMBER_OF_FRIENDS)));
+    }
+
+    /**
+     * Builds a cursor over the row, or over nothing if the row is null, with the columns in the
+     * projection.
+     */
+    static Cursor toCursor(Row row, String[] projection) {
+        String[] columns = (projection == null) ? COLUMNS : projection;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = row.get(columnIndex(columns[i]));
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private static int columnIndex(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An immutable snapshot of one row of the friends table.
+     */
+    static final class Row {
+        // Rough overhead of the Row, its Long key, the String and the cache entry
+        private static final int OVERHEAD_BYTES = 96;
+
+        final long id;
+        final String name;
+        final int numberOfFriends;
+
+        Row(long id, String name, int numberOfFriends) {
+            this.id = id;
+            this.name = name;
+            this.numberOfFriends = numberOfFriends;
+        }
+
+        Object get(int columnIndex) {
+            switch (columnIndex) {
+                case 0:
+                    return id;
+                case 1:
+                    return name;
+                default:
+                    return numberOfFriends;
+            }
+        }
+
+        int sizeInBytes() {
+            return OVERHEAD_BYTES + 2 * name.length();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A compact binary format for copying the friends table in and out of the provider, used by
+ * {@link ExampleContract.ExampleEntry#EXPORT_URI}.
+ * <p>
+ * A file starts with the bytes {@code FRND} and a version byte. Each person follows as a
+ * {@link #TAG_ROW} byte, then the ID, the number of friends and the length of the UTF-8 name as
+ * variable length integers (seven bits per byte, low bits first), then the name itself. The file
+ * ends with a {@link #TAG_END} byte, so a file that was cut short can be told apart from a
+ * complete one.
+ */
+public final class FriendsBinaryFormat {
+
+    private static final byte[] MAGIC = new byte[] {'F', 'R', 'N', 'D'};
+    private static final int VERSION = 1;
+
+    private static final int TAG_END = 0;
+    private static final int TAG_ROW = 1;
+
+    private FriendsBinaryFormat() {
+    }
+
+    /**
+     * Writes people to a stream one at a time. The stream should be buffered.
+     */
+    public static final class Writer {
+        private final OutputStream mOut;
+        private byte[] mNameBuffer = new byte[64];
+
+        /**
+         * Writes the header straight away.
+         */
+        public Writer(OutputStream out) throws IOException {
+            mOut = out;
+            mOut.write(MAGIC);
+            mOut.write(VERSION);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the number of friends is negative, which the format
+         *                                  can't hold.
+         */
+        public void writeRow(long id, String name, int numberOfFriends) throws IOException {
+            if (numberOfFriends < 0) {
+                throw new IllegalArgumentException("Cannot have a negative number of friends: " +
+                        numberOfFriends);
+            }
+            int length = encodeUtf8(name);
+            mOut.write(TAG_ROW);
+            writeVarLong(id);
+            writeVarLong(numberOfFriends);
+            writeVarLong(length);
+            mOut.write(mNameBuffer, 0, length);
+        }
+
+        /**
+         * Marks the end of the file and flushes the stream, without closing it.
+         */
+        public void finish() throws IOException {
+            mOut.write(TAG_END);
+            mOut.flush();
+        }
+
+        private void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7FL) != 0) {
+                mOut.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            mOut.write((int) value);
+        }
+
+        /**
+         * Encodes the name into the reused name buffer, growing it if needed.
+         *
+         * @return the number of bytes used.
+         */
+        private int encodeUtf8(String text) {
+            int length = text.length();
+            if (mNameBuffer.length < length * 3) {
+                mNameBuffer = new byte[length * 3];
+            }
+            byte[] buffer = mNameBuffer;
+            int position = 0;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    buffer[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    buffer[position++] = (byte) (0xC0 | (c >> 6));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length
+                        && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    buffer[position++] = (byte) (0xE0 | (c >> 12));
+                    buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buffer[position++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Reads people from a stream one at a time. The stream should be buffered.
+     */
+    public static final class Reader {
+        private final InputStream mIn;
+        private byte[] mNameBuffer = new byte[64];
+
+        private long mId;
+        private String mName;
+        private int mNumberOfFriends;
+
+        /**
+         * Reads and checks the header straight away.
+         *
+         * @throws IOException if the stream isn't in this format.
+         */
+        public Reader(InputStream in) throws IOException {
+            mIn = in;
+            for (byte expected : MAGIC) {
+                if (readByte() != expected) {
+                    throw new IOException("Not a friends file");
+                }
+            }
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported friends file version: " + version);
+            }
+        }
+
+        /**
+         * Reads the next person.
+         *
+         * @return false at the end of the file.
+         * @throws EOFException if the file was cut short.
+         */
+        public boolean next() throws IOException {
+            int tag = readByte();
+            if (tag == TAG_END) {
+                return false;
+            }
+            if (tag != TAG_ROW) {
+                throw new IOException("Corrupt friends file, unknown tag " + tag);
+            }
+            mId = readVarLong();
+            long numberOfFriends = readVarLong();
+            long length = readVarLong();
+            if (numberOfFriends > Integer.MAX_VALUE || length > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt friends file, value out of range");
+            }
+            mNumberOfFriends = (int) numberOfFriends;
+            mName = readUtf8((int) length);
+            return true;
+        }
+
+        public long getId() {
+            return mId;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getNumberOfFriends() {
+            return mNumberOfFriends;
+        }
+
+        private int readByte() throws IOException {
+            int b = mIn.read();
+            if (b < 0) {
+                throw new EOFException("Friends file ends before its end marker");
+            }
+            return b;
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt friends file, integer too long");
+        }
+
+        private String readUtf8(int length) throws IOException {
+            if (mNameBuffer.length < length) {
+                mNameBuffer = new byte[length];
+            }
+            int read = 0;
+            while (read < length) {
+                int count = mIn.read(mNameBuffer, read, length - read);
+                if (count < 0) {
+                    throw new EOFException("Friends file ends in the middle of a name");
+                }
+                read += count;
+            }
+            return new String(mNameBuffer, 0, length, "UTF-8");
+        }
+    }
+}
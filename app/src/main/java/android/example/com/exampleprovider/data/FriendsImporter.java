@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentValues;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+import android.example.com.exampleprovider.data.ExampleContract.ImportEntry;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads people in {@link FriendsBinaryFormat} from a pipe and inserts them a chunk at a time, for
+ * {@link ImportEntry#CONTENT_URI}.
+ * <p>
+ * A whole chunk is read and checked before its transaction starts, so a client that writes
+ * slowly, or stops writing, never holds the database's write lock. Only one chunk is held in
+ * memory: the reader reuses its buffers, and so do the {@link ContentValues} the chunk is read
+ * into. Rows that are invalid or clash with an existing person are counted as errors and skipped.
+ * If the stream turns out to be broken, everything read before that point is kept.
+ * <p>
+ * IDs in the file are not imported. People get new IDs, and are matched to existing people by
+ * name if the import has a conflict policy.
+ */
+class FriendsImporter implements Runnable {
+    private static final String LOG_TAG = FriendsImporter.class.getSimpleName();
+
+    private static final int BUFFER_BYTES = 8 * 1024;
+
+    /**
+     * Told every time a chunk of the import is committed, and when the import ends.
+     */
+    interface Listener {
+        void onProgress(FriendsImporter importer);
+    }
+
+    private final BulkInserter mInserter;
+    private final int mChunkSize;
+    private final ValuesValidator mValidator;
+    private final ParcelFileDescriptor mSource;
+    private final Listener mListener;
+
+    private volatile String mState = ImportEntry.STATE_RUNNING;
+    private volatile String mMessage;
+    private final AtomicInteger mRowsRead = new AtomicInteger();
+    private final AtomicInteger mRowsInserted = new AtomicInteger();
+    private final AtomicInteger mErrors = new AtomicInteger();
+
+    // The rows of the chunk being read. The values are reused for every chunk.
+    private final List<ContentValues> mChunk = new ArrayList<ContentValues>();
+    private int mRowsInChunk;
+
+    /**
+     * @param inserter inserts the rows. It is finished when the import ends.
+     * @param source   the end of the pipe to read from. It is closed when the import ends.
+     */
+    FriendsImporter(BulkInserter inserter, int chunkSize, ValuesValidator validator,
+                    ParcelFileDescriptor source, Listener listener) {
+        mInserter = inserter;
+        mChunkSize = chunkSize;
+        mValidator = validator;
+        mSource = source;
+        mListener = listener;
+    }
+
+    @Override
+    public void run() {
+        InputStream in = new BufferedInputStream(
+                new ParcelFileDescriptor.AutoCloseInputStream(mSource), BUFFER_BYTES);
+        String failure = null;
+
+        try {
+            FriendsBinaryFormat.Reader reader = new FriendsBinaryFormat.Reader(in);
+            while (reader.next()) {
+                mRowsRead.incrementAndGet();
+                if (mRowsInChunk == mChunk.size()) {
+                    mChunk.add(new ContentValues());
+                }
+                ContentValues values = mChunk.get(mRowsInChunk);
+                values.clear();
+                values.put(ExampleEntry.NAME, reader.getName());
+                values.put(ExampleEntry.NUMBER_OF_FRIENDS, reader.getNumberOfFriends());
+
+                if (!mValidator.isValid(values)) {
+                    mErrors.incrementAndGet();
+                } else if (++mRowsInChunk == mChunkSize) {
+                    insertChunk();
+                }
+            }
+        } catch (EOFException e) {
+            failure = "The import was cut short";
+            Log.w(LOG_TAG, failure, e);
+        } catch (IOException e) {
+            failure = e.getMessage();
+            Log.w(LOG_TAG, "Import failed after " + mRowsRead + " people", e);
+        } catch (RuntimeException e) {
+            failure = e.toString();
+            Log.w(LOG_TAG, "Import failed after " + mRowsRead + " people", e);
+        }
+
+        // Keeps whatever was read before a broken stream, too
+        try {
+            insertChunk();
+        } catch (RuntimeException e) {
+            failure = e.toString();
+            Log.w(LOG_TAG, "Import failed to commit", e);
+        } finally {
+            mInserter.close();
+        }
+        try {
+            in.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+
+        // Only reported once the last chunk has been committed
+        mMessage = failure;
+        mState = failure == null ? ImportEntry.STATE_FINISHED : ImportEntry.STATE_FAILED;
+        Log.d(LOG_TAG, "Import " + mState + ": read " + mRowsRead + " people, inserted " +
+                mRowsInserted + ", " + mErrors + " errors");
+        mListener.onProgress(this);
+    }
+
+    /**
+     * Inserts and commits the rows read since the last chunk, then reports the progress.
+     */
+    private void insertChunk() {
+        int rows = mRowsInChunk;
+        if (rows == 0) {
+            return;
+        }
+        // Cleared first, so rows that fail to commit aren't tried again
+        mRowsInChunk = 0;
+        int inserted = mInserter.insertChunk(mChunk.subList(0, rows));
+        mRowsInserted.addAndGet(inserted);
+        mErrors.addAndGet(rows - inserted);
+        mListener.onProgress(this);
+    }
+
+    /**
+     * @return one of {@link ImportEntry#STATE_RUNNING}, {@link ImportEntry#STATE_FINISHED} or
+     * {@link ImportEntry#STATE_FAILED}.
+     */
+    String getState() {
+        return mState;
+    }
+
+    boolean isRunning() {
+        return ImportEntry.STATE_RUNNING.equals(mState);
+    }
+
+    /**
+     * @return why the import failed, or null.
+     */
+    String getMessage() {
+        return mMessage;
+    }
+
+    int getRowsRead() {
+        return mRowsRead.get();
+    }
+
+    int getRowsInserted() {
+        return mRowsInserted.get();
+    }
+
+    int getErrors() {
+        return mErrors.get();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * One step of the database schema history. A migration changes the schema of a database at
+ * {@code version - 1} into the schema of {@code version}, keeping the rows that are already there.
+ * <p>
+ * Migrations can be interrupted (for example if the app is killed) after any chunk that
+ * {@link MigrationEngine} has committed, and are run again from the start the next time the
+ * database is opened. They must therefore be written so that running them twice is harmless, for
+ * example by using {@code IF NOT EXISTS} and {@link MigrationEngine#copyInChunks}.
+ */
+abstract class Migration {
+
+    /**
+     * The database version this migration upgrades to.
+     */
+    final int version;
+
+    Migration(int version) {
+        this.version = version;
+    }
+
+    /**
+     * Applies the schema changes for this version.
+     */
+    abstract void migrate(SQLiteDatabase db, MigrationEngine engine);
+}
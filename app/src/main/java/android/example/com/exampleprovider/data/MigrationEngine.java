@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Runs {@link Migration}s in order from inside
+ * {@link android.database.sqlite.SQLiteOpenHelper#onUpgrade}.
+ * <p>
+ * SQLiteOpenHelper runs the whole upgrade in one transaction, so without help a long upgrade
+ * that gets interrupted has to start again from the beginning. Instead, the engine commits after
+ * every migration (recording the version reached) and after every chunk of a large table copy
+ * (recording how far it got), so the next upgrade picks up where the last one stopped.
+ */
+class MigrationEngine {
+    private static final String LOG_TAG = MigrationEngine.class.getSimpleName();
+
+    /**
+     * Remembers how far each chunked copy has got. Rows are removed once the copy is finished.
+     */
+    static final String TABLE_PROGRESS = "migration_progress";
+    private static final String COLUMN_KEY = "key";
+    private static final String COLUMN_LAST_ID = "last_id";
+
+    private final Migration[] mMigrations;
+    private final int mChunkSize;
+
+    /**
+     * @param migrations every migration, ordered by version
+     * @param chunkSize  how many rows a chunked copy commits at a time
+     */
+    MigrationEngine(Migration[] migrations, int chunkSize) {
+        for (int i = 1; i < migrations.length; i++) {
+            if (migrations[i].version <= migrations[i - 1].version) {
+                throw new IllegalArgumentException("Migrations are not in version order");
+            }
+        }
+        mMigrations = migrations;
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Runs every migration after {@code oldVersion} up to and including {@code newVersion}.
+     * Must be called while SQLiteOpenHelper's upgrade transaction is open.
+     */
+    void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_PROGRESS + " (" +
+                COLUMN_KEY + " TEXT PRIMARY KEY, " +
+                COLUMN_LAST_ID + " INTEGER NOT NULL);");
+
+        for (Migration migration : mMigrations) {
+            if (migration.version <= oldVersion || migration.version > newVersion) {
+                continue;
+            }
+            long start = SystemClock.elapsedRealtime();
+            migration.migrate(db, this);
+
+            // Once this is committed, an interrupted upgrade restarts after this migration
+            db.setVersion(migration.version);
+            commit(db);
+            Log.i(LOG_TAG, String.format("Migrated to version %d in %d ms",
+                    migration.version, SystemClock.elapsedRealtime() - start));
+        }
+    }
+
+    /**
+     * Copies rows from {@code sourceTable} into another table one chunk at a time, in order of
+     * {@code _id}, committing after every chunk.
+     *
+     * @param key       names this copy in the progress table, so it can resume after an
+     *                  interruption
+     * @param insertSql an INSERT ... SELECT ... FROM sourceTable statement whose WHERE clause ends
+     *                  with {@code _id > ? AND _id <= ?}, which is bound to each chunk's range
+     * @return the number of chunks copied by this call
+     */
+    int copyInChunks(SQLiteDatabase db, String key, String sourceTable, String insertSql) {
+        long lastId = DatabaseUtils.longForQuery(db,
+                "SELECT IFNULL(MAX(" + COLUMN_LAST_ID + "), -1) FROM " + TABLE_PROGRESS +
+                        " WHERE " + COLUMN_KEY + " = ?", new String[] {key});
+        if (lastId >= 0) {
+            Log.i(LOG_TAG, "Resuming " + key + " after row " + lastId);
+        }
+
+        SQLiteStatement nextChunkEnd = db.compileStatement(
+                "SELECT IFNULL(MAX(_id), -1) FROM (SELECT _id FROM " + sourceTable +
+                        " WHERE _id > ? ORDER BY _id LIMIT " + mChunkSize + ")");
+        SQLiteStatement copy = db.compileStatement(insertSql);
+        SQLiteStatement saveProgress = db.compileStatement(
+                "INSERT OR REPLACE INTO " + TABLE_PROGRESS + " (" + COLUMN_KEY + ", " +
+                        COLUMN_LAST_ID + ") VALUES (?, ?)");
+        int chunks = 0;
+        try {
+            while (true) {
+                nextChunkEnd.bindLong(1, lastId);
+                long chunkEnd = nextChunkEnd.simpleQueryForLong();
+                if (chunkEnd < 0) {
+                    break;
+                }
+
+                copy.bindLong(1, lastId);
+                copy.bindLong(2, chunkEnd);
+                copy.execute();
+
+                saveProgress.bindString(1, key);
+                saveProgress.bindLong(2, chunkEnd);
+                saveProgress.execute();
+                commit(db);
+
+                lastId = chunkEnd;
+                chunks++;
+            }
+        } finally {
+            nextChunkEnd.close();
+            copy.close();
+            saveProgress.close();
+        }
+
+        db.delete(TABLE_PROGRESS, COLUMN_KEY + " = ?", new String[] {key});
+        return chunks;
+    }
+
+    /**
+     * Commits the work done so far and opens a new transaction for SQLiteOpenHelper to finish.
+     */
+    private static void commit(SQLiteDatabase db) {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+        db.beginTransaction();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the URIs that changed and sends one notification per URI, instead of one
+ * notification per write.
+ * <p>
+ * Outside of a batch, changed URIs are held for a short window and then sent together, so a
+ * burst of writes only makes each observer reload once. Inside a batch (see
+ * {@link #beginBatch()}) they are held until the batch ends, and dropped if it fails. Changes
+ * committed part way through a batch are sent with {@link #flushBatch()}.
+ */
+class NotificationCoalescer {
+
+    private final ContentResolver mResolver;
+    private final long mWindowMillis;
+    private final Handler mHandler;
+
+    // URIs waiting for the window to close. Also used as the lock for mFlushScheduled.
+    private final Set<Uri> mPending = new LinkedHashSet<Uri>();
+    private boolean mFlushScheduled;
+
+    // URIs changed by the batch running on the current thread, if there is one
+    private final ThreadLocal<Set<Uri>> mBatch = new ThreadLocal<Set<Uri>>();
+
+    private final AtomicLong mRequested = new AtomicLong();
+    private final AtomicLong mSent = new AtomicLong();
+    private final AtomicLong mSuppressed = new AtomicLong();
+
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param windowMillis how long to wait for more changes before notifying. Zero notifies
+     *                     straight away, which still removes duplicates inside a batch.
+     */
+    NotificationCoalescer(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mHandler = new Handler(Looper.getMainLooper());
+    }
+
+    /**
+     * Records that the data behind the URI changed.
+     */
+    void notifyChange(Uri uri) {
+        mRequested.incrementAndGet();
+
+        Set<Uri> batch = mBatch.get();
+        if (batch != null) {
+            if (!batch.add(uri)) {
+                mSuppressed.incrementAndGet();
+            }
+            return;
+        }
+
+        if (mWindowMillis <= 0) {
+            send(uri);
+            return;
+        }
+        synchronized (mPending) {
+            if (!mPending.add(uri)) {
+                mSuppressed.incrementAndGet();
+                return;
+            }
+            if (!mFlushScheduled) {
+                mFlushScheduled = true;
+                mHandler.postDelayed(mFlush, mWindowMillis);
+            }
+        }
+    }
+
+    /**
+     * Starts holding back notifications from the current thread until {@link #endBatch(boolean)}.
+     */
+    void beginBatch() {
+        if (mBatch.get() != null) {
+            throw new IllegalStateException("A batch is already running on this thread");
+        }
+        mBatch.set(new LinkedHashSet<Uri>());
+    }
+
+    /**
+     * Ends the batch on the current thread. If it was successful every URI it changed is
+     * notified right away, since the transaction has been committed.
+     */
+    void endBatch(boolean successful) {
+        Set<Uri> batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch is running on this thread");
+        }
+        mBatch.remove();
+        if (!successful) {
+            return;
+        }
+        sendBatch(batch);
+    }
+
+    /**
+     * Notifies every URI the batch on the current thread has changed so far, and carries on
+     * collecting. Call it when the batch's transaction commits part way through, for example
+     * after yielding, so that those changes are notified even if the rest of the batch fails.
+     */
+    void flushBatch() {
+        Set<Uri> batch = mBatch.get();
+        if (batch == null) {
+            throw new IllegalStateException("No batch is running on this thread");
+        }
+        sendBatch(batch);
+        batch.clear();
+    }
+
+    private void sendBatch(Set<Uri> batch) {
+        synchronized (mPending) {
+            // Anything waiting for the window is about to be sent anyway
+            for (Uri uri : batch) {
+                if (mPending.remove(uri)) {
+                    mSuppressed.incrementAndGet();
+                }
+            }
+        }
+        for (Uri uri : batch) {
+            send(uri);
+        }
+    }
+
+    /**
+     * Sends every pending notification now.
+     */
+    void flush() {
+        List<Uri> uris;
+        synchronized (mPending) {
+            mHandler.removeCallbacks(mFlush);
+            mFlushScheduled = false;
+            uris = new ArrayList<Uri>(mPending);
+            mPending.clear();
+        }
+        for (Uri uri : uris) {
+            send(uri);
+        }
+    }
+
+    private void send(Uri uri) {
+        mSent.incrementAndGet();
+        mResolver.notifyChange(uri, null);
+    }
+
+    /**
+     * @return how many times a change was reported.
+     */
+    long getNotificationsRequested() {
+        return mRequested.get();
+    }
+
+    /**
+     * @return how many notifications were actually sent to the content resolver.
+     */
+    long getNotificationsSent() {
+        return mSent.get();
+    }
+
+    /**
+     * @return how many reported changes were folded into a notification for the same URI.
+     */
+    long getNotificationsSuppressed() {
+        return mSuppressed.get();
+    }
+}
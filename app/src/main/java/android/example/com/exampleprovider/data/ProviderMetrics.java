@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.CrossProcessCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.database.MatrixCursor;
+import android.example.com.exampleprovider.data.ExampleContract.StatsEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts and times the work {@link ExampleProvider} does, for {@link StatsEntry#CONTENT_URI}.
+ * <p>
+ * Every operation records its latency in a histogram with power of two buckets, and the number
+ * of rows it touched. Recording is a handful of atomic increments, so it can be left on; turning
+ * it off makes it a single volatile read. Queries are the exception: their cursor is wrapped so
+ * its size can be recorded when the caller first reads it, rather than making SQLite run and
+ * count the whole result inside {@code query()}.
+ */
+class ProviderMetrics {
+
+    // The operations that are timed
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int BULK_INSERT = 2;
+    static final int UPDATE = 3;
+    static final int DELETE = 4;
+    static final int APPLY_BATCH = 5;
+
+    private static final String[] OPERATION_NAMES = new String[] {
+            StatsEntry.OPERATION_QUERY,
+            StatsEntry.OPERATION_INSERT,
+            StatsEntry.OPERATION_BULK_INSERT,
+            StatsEntry.OPERATION_UPDATE,
+            StatsEntry.OPERATION_DELETE,
+            StatsEntry.OPERATION_APPLY_BATCH
+    };
+
+    private volatile boolean mEnabled = true;
+
+    private final Histogram[] mLatencyMicros = new Histogram[OPERATION_NAMES.length];
+    private final AtomicLong[] mRows = new AtomicLong[OPERATION_NAMES.length];
+    private final Histogram mTransactionMicros = new Histogram();
+    private final Histogram mCursorRows = new Histogram();
+
+    ProviderMetrics() {
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            mLatencyMicros[i] = new Histogram();
+            mRows[i] = new AtomicLong();
+        }
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    /**
+     * @return the time to pass to the record methods when the operation is done.
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records an operation that started at {@code startNanos} and touched {@code rows} rows.
+     */
+    void record(int operation, long startNanos, long rows) {
+        if (!mEnabled) return;
+        mLatencyMicros[operation].add((System.nanoTime() - startNanos) / 1000);
+        mRows[operation].addAndGet(rows);
+    }
+
+    /**
+     * Records a transaction that started at {@code startNanos} and has just ended.
+     */
+    void recordTransaction(long startNanos) {
+        if (!mEnabled) return;
+        mTransactionMicros.add((System.nanoTime() - startNanos) / 1000);
+    }
+
+    /**
+     * Records a query, including the size of the cursor it returns, once the caller first moves
+     * the cursor or asks for its size. SQLite only runs the query then, so the latency includes
+     * running it. A cursor that is never read isn't recorded.
+     *
+     * @return the cursor to return to the caller in place of {@code cursor}.
+     */
+    Cursor recordQuery(long startNanos, Cursor cursor) {
+        if (!mEnabled) return cursor;
+        if (!(cursor instanceof CrossProcessCursor)) {
+            // Can't be wrapped without slowing down sending it to other processes
+            recordQuery(startNanos, cursor.getCount());
+            return cursor;
+        }
+        return new MeasuredCursor((CrossProcessCursor) cursor, startNanos);
+    }
+
+    private void recordQuery(long startNanos, int count) {
+        record(QUERY, startNanos, count);
+        mCursorRows.add(count);
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset() {
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            mLatencyMicros[i].reset();
+            mRows[i].set(0);
+        }
+        mTransactionMicros.reset();
+        mCursorRows.reset();
+    }
+
+    /**
+     * Adds a row to the cursor for every metric, named as described in {@link StatsEntry}.
+     */
+    void addTo(MatrixCursor cursor) {
+        cursor.addRow(new Object[] {StatsEntry.METRICS_ENABLED, mEnabled ? 1 : 0});
+        for (int i = 0; i < OPERATION_NAMES.length; i++) {
+            mLatencyMicros[i].addTo(cursor, OPERATION_NAMES[i] + StatsEntry.SUFFIX_MICROS);
+            cursor.addRow(new Object[] {OPERATION_NAMES[i] + StatsEntry.SUFFIX_ROWS,
+                    mRows[i].get()});
+        }
+        mTransactionMicros.addTo(cursor,
+                StatsEntry.OPERATION_TRANSACTION + StatsEntry.SUFFIX_MICROS);
+        mCursorRows.addTo(cursor, StatsEntry.CURSOR_ROWS);
+    }
+
+    /**
+     * Counts values in buckets whose bounds are powers of two. Bucket {@code b} holds the values
+     * from {@code 2^(b-1)} to {@code 2^b - 1}, and bucket 0 holds zero.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 64;
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+
+        void add(long value) {
+            if (value < 0) value = 0;
+            mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+        }
+
+        long count() {
+            return mCount.get();
+        }
+
+        /**
+         * @return the upper bound of the bucket holding the given percentile, or 0 if nothing
+         * has been recorded.
+         */
+        long percentile(int percent) {
+            long count = mCount.get();
+            if (count == 0) return 0;
+            long rank = Math.max(1, (count * percent + 99) / 100);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += mBuckets.get(b);
+                if (seen >= rank) return upperBound(b);
+            }
+            return upperBound(BUCKETS - 1);
+        }
+
+        void reset() {
+            for (int b = 0; b < BUCKETS; b++) {
+                mBuckets.set(b, 0);
+            }
+            mCount.set(0);
+            mSum.set(0);
+        }
+
+        void addTo(MatrixCursor cursor, String name) {
+            cursor.addRow(new Object[] {name + StatsEntry.SUFFIX_COUNT, mCount.get()});
+            cursor.addRow(new Object[] {name + StatsEntry.SUFFIX_SUM, mSum.get()});
+            cursor.addRow(new Object[] {name + StatsEntry.SUFFIX_P50, percentile(50)});
+            cursor.addRow(new Object[] {name + StatsEntry.SUFFIX_P90, percentile(90)});
+            cursor.addRow(new Object[] {name + StatsEntry.SUFFIX_P99, percentile(99)});
+            for (int b = 0; b < BUCKETS; b++) {
+                long inBucket = mBuckets.get(b);
+                if (inBucket > 0) {
+                    cursor.addRow(new Object[] {
+                            name + StatsEntry.SUFFIX_BUCKET + upperBound(b), inBucket});
+                }
+            }
+        }
+
+        private static long upperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+    }
+
+    /**
+     * Records the query that made a cursor the first time the cursor is moved or counted,
+     * whether that happens in this process or while it is sent to another one.
+     */
+    private final class MeasuredCursor extends CursorWrapper implements CrossProcessCursor {
+        private final CrossProcessCursor mCursor;
+        private final long mStartNanos;
+        private boolean mRecorded;
+
+        MeasuredCursor(CrossProcessCursor cursor, long startNanos) {
+            super(cursor);
+            mCursor = cursor;
+            mStartNanos = startNanos;
+        }
+
+        private void recordOnce() {
+            if (mRecorded) return;
+            mRecorded = true;
+            // Counting runs the query, if nothing has yet
+            recordQuery(mStartNanos, mCursor.getCount());
+        }
+
+        @Override
+        public int getCount() {
+            recordOnce();
+            return super.getCount();
+        }
+
+        @Override
+        public boolean move(int offset) {
+            recordOnce();
+            return super.move(offset);
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            recordOnce();
+            return super.moveToPosition(position);
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            recordOnce();
+            return super.moveToFirst();
+        }
+
+        @Override
+        public boolean moveToLast() {
+            recordOnce();
+            return super.moveToLast();
+        }
+
+        @Override
+        public boolean moveToNext() {
+            recordOnce();
+            return super.moveToNext();
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            recordOnce();
+            return super.moveToPrevious();
+        }
+
+        // Sending the cursor to another process fills windows straight from the wrapped cursor
+
+        @Override
+        public CursorWindow getWindow() {
+            return mCursor.getWindow();
+        }
+
+        @Override
+        public void fillWindow(int position, CursorWindow window) {
+            recordOnce();
+            mCursor.fillWindow(position, window);
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            return mCursor.onMove(oldPosition, newPosition);
+        }
+    }
+}
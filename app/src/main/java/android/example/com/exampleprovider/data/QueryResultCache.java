@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps immutable copies of recent query results, so that running the same query again (for
+ * example when a loader is recreated after a configuration change) doesn't touch the database.
+ * <p>
+ * Results are keyed by the whole query: URI, projection, selection, selection arguments and sort
+ * order. Only small results are kept. Every write must call {@link #invalidate(Uri)} with the URI
+ * it notifies, which drops every result whose URI is that URI, one of its ancestors or one of its
+ * descendants.
+ */
+class QueryResultCache {
+
+    private final int mMaxEntries;
+    private final int mMaxRowsPerEntry;
+
+    // Ordered by access, so the first entry is the least recently used. Guarded by this.
+    private final LinkedHashMap<Key, Snapshot> mEntries;
+
+    // Bumped by every invalidation, see FriendRowCache. Guarded by this.
+    private long mGeneration;
+
+    private int mHits;
+    private int mMisses;
+
+    QueryResultCache(int maxEntries, int maxRowsPerEntry) {
+        mMaxEntries = maxEntries;
+        mMaxRowsPerEntry = maxRowsPerEntry;
+        mEntries = new LinkedHashMap<Key, Snapshot>(maxEntries, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Snapshot> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return a new cursor over the cached result, or null if the query isn't cached.
+     */
+    Cursor get(Key key) {
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = mEntries.get(key);
+            if (snapshot == null) {
+                mMisses++;
+                return null;
+            }
+            mHits++;
+        }
+        return snapshot.toCursor();
+    }
+
+    /**
+     * @return a token to pass to {@link #put(Key, Cursor, long)}. It must be taken before the
+     * query is run.
+     */
+    synchronized long generation() {
+        return mGeneration;
+    }
+
+    /**
+     * Caches the result of a query if it's small enough and nothing has been invalidated since
+     * {@code generation} was taken.
+     *
+     * @return a cursor with the same contents as {@code cursor}. If the result was cached, the
+     * original cursor has been closed.
+     */
+    Cursor put(Key key, Cursor cursor, long generation) {
+        if (cursor.getCount() > mMaxRowsPerEntry) {
+            return cursor;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = new Snapshot(cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mEntries.put(key, snapshot);
+            }
+        }
+        return snapshot.toCursor();
+    }
+
+    /**
+     * Drops every result that may have been changed by a write to {@code changedUri}.
+     */
+    synchronized void invalidate(Uri changedUri) {
+        mGeneration++;
+        List<String> changed = changedUri.getPathSegments();
+        Iterator<Key> keys = mEntries.keySet().iterator();
+        while (keys.hasNext()) {
+            List<String> cached = keys.next().uri.getPathSegments();
+            if (isPrefix(changed, cached) || isPrefix(cached, changed)) {
+                keys.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mEntries.clear();
+    }
+
+    synchronized int hitCount() {
+        return mHits;
+    }
+
+    synchronized int missCount() {
+        return mMisses;
+    }
+
+    private static boolean isPrefix(List<String> prefix, List<String> path) {
+        return prefix.size() <= path.size() && path.subList(0, prefix.size()).equals(prefix);
+    }
+
+    /**
+     * Identifies a query by everything that was passed to
+     * {@link android.content.ContentProvider#query}.
+     */
+    static final class Key {
+        final Uri uri;
+        final String[] projection;
+        final String selection;
+        final String[] selectionArgs;
+        final String sortOrder;
+        private final int hash;
+
+        Key(Uri uri, String[] projection, String selection, String[] selectionArgs,
+            String sortOrder) {
+            this.uri = uri;
+            // Copied, since the caller could change the arrays after the result is cached
+            this.projection = (projection == null) ? null : projection.clone();
+            this.selection = selection;
+            this.selectionArgs = (selectionArgs == null) ? null : selectionArgs.clone();
+            this.sortOrder = sortOrder;
+            hash = Arrays.hashCode(new Object[] {uri, selection, sortOrder})
+                    + 31 * Arrays.hashCode(projection) + 961 * Arrays.hashCode(selectionArgs);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash
+                    && uri.equals(other.uri)
+                    && Arrays.equals(projection, other.projection)
+                    && equal(selection, other.selection)
+                    && Arrays.equals(selectionArgs, other.selectionArgs)
+                    && equal(sortOrder, other.sortOrder);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        private static boolean equal(String a, String b) {
+            return (a == null) ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * An immutable copy of every row of a cursor.
+     */
+    private static final class Snapshot {
+        private final String[] mColumns;
+        private final Object[][] mRows;
+
+        Snapshot(Cursor cursor) {
+            mColumns = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            int row = 0;
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] values = new Object[mColumns.length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = getValue(cursor, i);
+                }
+                mRows[row++] = values;
+            }
+        }
+
+        Cursor toCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRows.length);
+            for (Object[] values : mRows) {
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+
+        private static Object getValue(Cursor cursor, int column) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                return getTypedValue(cursor, column);
+            }
+            // Without Cursor.getType, strings are the only type that converts back losslessly
+            return cursor.isNull(column) ? null : cursor.getString(column);
+        }
+
+        @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+        private static Object getTypedValue(Cursor cursor, int column) {
+            switch (cursor.getType(column)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    return null;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    return cursor.getLong(column);
+                case Cursor.FIELD_TYPE_FLOAT:
+                    return cursor.getDouble(column);
+                case Cursor.FIELD_TYPE_BLOB:
+                    return cursor.getBlob(column);
+                default:
+                    return cursor.getString(column);
+            }
+        }
+    }
+}
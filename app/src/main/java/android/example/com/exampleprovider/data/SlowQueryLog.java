@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.example.com.exampleprovider.data.ExampleContract.SlowQueryEntry;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent queries that took longer than a threshold, along with the plan SQLite
+ * chose for them, for {@link SlowQueryEntry#CONTENT_URI}.
+ * <p>
+ * It is off until a threshold is set. While it is off, queries run exactly as they would
+ * without it. While it is on, each query's cursor is counted straight away so that the time
+ * includes running it, and only queries over the threshold pay for the EXPLAIN QUERY PLAN.
+ */
+class SlowQueryLog {
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    private final Entry[] mEntries;
+    // Number of entries ever added. The newest is at (mAdded - 1) % capacity.
+    private long mAdded;
+
+    private volatile long mThresholdMicros = -1;
+
+    /**
+     * @param capacity how many of the most recent slow queries are kept.
+     */
+    SlowQueryLog(int capacity) {
+        mEntries = new Entry[capacity];
+    }
+
+    boolean isEnabled() {
+        return mThresholdMicros >= 0;
+    }
+
+    /**
+     * Queries that take at least this long are logged. A negative threshold turns the log off.
+     */
+    void setThresholdMillis(long thresholdMillis) {
+        mThresholdMicros = thresholdMillis < 0 ? -1 : thresholdMillis * 1000;
+    }
+
+    long getThresholdMillis() {
+        long threshold = mThresholdMicros;
+        return threshold < 0 ? -1 : threshold / 1000;
+    }
+
+    /**
+     * Runs the query, and logs it if it was slow.
+     */
+    Cursor rawQuery(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        long threshold = mThresholdMicros;
+        if (threshold < 0) {
+            return db.rawQuery(sql, selectionArgs);
+        }
+
+        long start = System.nanoTime();
+        Cursor cursor = db.rawQuery(sql, selectionArgs);
+        // SQLite only runs the query when the cursor is first filled
+        int rows = cursor.getCount();
+        long elapsedMicros = (System.nanoTime() - start) / 1000;
+
+        if (elapsedMicros >= threshold) {
+            String plan = explain(db, sql, selectionArgs);
+            Log.w(LOG_TAG, String.format("Slow query (%d us, %d rows): %s\n%s",
+                    elapsedMicros, rows, sql, plan));
+            add(new Entry(System.currentTimeMillis(), sql,
+                    selectionArgs == null ? null : Arrays.toString(selectionArgs),
+                    plan, elapsedMicros, rows));
+        }
+        return cursor;
+    }
+
+    private synchronized void add(Entry entry) {
+        mEntries[(int) (mAdded % mEntries.length)] = entry;
+        mAdded++;
+    }
+
+    /**
+     * Forgets every logged query.
+     *
+     * @return how many were forgotten.
+     */
+    synchronized int clear() {
+        int cleared = (int) Math.min(mAdded, mEntries.length);
+        Arrays.fill(mEntries, null);
+        mAdded = 0;
+        return cleared;
+    }
+
+    /**
+     * Returns the logged queries, newest first. Each gets an {@link SlowQueryEntry#_ID} counting
+     * up from 1 in the order they were logged.
+     */
+    synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[] {SlowQueryEntry._ID,
+                SlowQueryEntry.TIME, SlowQueryEntry.SQL, SlowQueryEntry.ARGS, SlowQueryEntry.PLAN,
+                SlowQueryEntry.DURATION_MICROS, SlowQueryEntry.ROWS});
+        long oldest = Math.max(0, mAdded - mEntries.length);
+        for (long i = mAdded - 1; i >= oldest; i--) {
+            Entry entry = mEntries[(int) (i % mEntries.length)];
+            cursor.addRow(new Object[] {i + 1, entry.timeMillis, entry.sql, entry.args,
+                    entry.plan, entry.durationMicros, entry.rows});
+        }
+        return cursor;
+    }
+
+    /**
+     * Asks SQLite how it runs the query, one step per line.
+     */
+    private static String explain(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            // Older versions of SQLite have different columns, but all of them have the detail
+            int detail = cursor.getColumnIndex("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) plan.append('\n');
+                if (detail >= 0) {
+                    plan.append(cursor.getString(detail));
+                } else {
+                    for (int i = 0; i < cursor.getColumnCount(); i++) {
+                        plan.append(i == 0 ? "" : " ").append(cursor.getString(i));
+                    }
+                }
+            }
+            return plan.toString();
+        } catch (RuntimeException e) {
+            // The query itself ran, so this shouldn't happen, but the log is only diagnostics
+            return "Could not explain: " + e;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static final class Entry {
+        final long timeMillis;
+        final String sql;
+        final String args;
+        final String plan;
+        final long durationMicros;
+        final int rows;
+
+        Entry(long timeMillis, String sql, String args, String plan, long durationMicros,
+              int rows) {
+            this.timeMillis = timeMillis;
+            this.sql = sql;
+            this.args = args;
+            this.plan = plan;
+            this.durationMicros = durationMicros;
+            this.rows = rows;
+        }
+    }
+}
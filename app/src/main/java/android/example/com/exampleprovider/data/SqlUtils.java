@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Small helpers shared by the classes that work with compiled {@link SQLiteStatement}s.
+ */
+final class SqlUtils {
+
+    private SqlUtils() {
+    }
+
+    /**
+     * Binds a value taken out of a {@link android.content.ContentValues} to a compiled statement,
+     * using the same type mapping as {@link android.database.sqlite.SQLiteDatabase#insert}.
+     */
+    static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Long || value instanceof Integer
+                || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, ((Boolean) value) ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Joins two WHERE clauses with AND. Either of them may be null or empty.
+     */
+    static String concatenateWhere(String a, String b) {
+        if (a == null || a.length() == 0) return b;
+        if (b == null || b.length() == 0) return a;
+        return "(" + a + ") AND (" + b + ")";
+    }
+
+    /**
+     * Adds more selection arguments after the ones that were passed in. Either may be null.
+     */
+    static String[] appendSelectionArgs(String[] originalValues, String... newValues) {
+        if (originalValues == null || originalValues.length == 0) {
+            return newValues;
+        }
+        if (newValues == null || newValues.length == 0) {
+            return originalValues;
+        }
+        String[] result = new String[originalValues.length + newValues.length];
+        System.arraycopy(originalValues, 0, result, 0, originalValues.length);
+        System.arraycopy(newValues, 0, result, originalValues.length, newValues.length);
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.SystemClock;
+import android.util.Log;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+
+/**
+ * Removes the people that were soft deleted (see {@link ExampleDbHelper#COLUMN_DELETED}) for
+ * good, and gives the space they took back to the file system.
+ * <p>
+ * The rows are removed a small batch at a time, each batch in its own transaction with a pause
+ * after it, so the provider's writes never wait long for the write lock. The freed pages are then
+ * returned with {@code PRAGMA incremental_vacuum}, also a few at a time. That needs the database
+ * to be in incremental auto-vacuum mode. New databases are created in it, and older ones are
+ * switched with {@link ExampleDbHelper#enableIncrementalVacuum()}. Until then the free pages are
+ * left for SQLite to reuse, since the full VACUUM that switches modes holds the write lock for as
+ * long as it takes to rebuild the file.
+ * <p>
+ * Meant to be run on a background thread.
+ */
+class TombstoneCompactor implements Runnable {
+    private static final String LOG_TAG = TombstoneCompactor.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final int mBatchSize;
+    private final int mVacuumPages;
+    private final long mPauseMillis;
+
+    /**
+     * @param batchSize   how many people to remove per transaction.
+     * @param vacuumPages how many free pages to return per incremental vacuum.
+     * @param pauseMillis how long to wait between batches.
+     */
+    TombstoneCompactor(SQLiteDatabase db, int batchSize, int vacuumPages, long pauseMillis) {
+        mDb = db;
+        mBatchSize = batchSize;
+        mVacuumPages = vacuumPages;
+        mPauseMillis = pauseMillis;
+    }
+
+    @Override
+    public void run() {
+        long start = SystemClock.elapsedRealtime();
+        int removed = purge();
+        long pages = vacuum();
+        Log.d(LOG_TAG, String.format("Removed %d deleted people and freed %d pages in %d ms",
+                removed, pages, SystemClock.elapsedRealtime() - start));
+    }
+
+    /**
+     * Removes every row marked deleted, in order of ID.
+     *
+     * @return the number of rows removed.
+     */
+    int purge() {
+        String friends = ExampleEntry.PATH_FRIENDS;
+        String id = ExampleEntry._ID;
+        String deleted = ExampleDbHelper.COLUMN_DELETED + " != 0";
+        // The batch is the next mBatchSize deleted rows after the last one, found through
+        // ExampleDbHelper.INDEX_DELETED where there is one
+        String nextBatchEnd = "SELECT MAX(" + id + ") FROM (SELECT " + id + " FROM " + friends +
+                " WHERE " + deleted + " AND " + id + " > ? ORDER BY " + id + " LIMIT " +
+                mBatchSize + ")";
+        SQLiteStatement delete = mDb.compileStatement("DELETE FROM " + friends + " WHERE " +
+                deleted + " AND " + id + " > ? AND " + id + " <= ?");
+
+        String[] args = new String[1];
+        long lastId = Long.MIN_VALUE;
+        int removed = 0;
+        try {
+            while (true) {
+                // Found before the transaction starts. Without the index it scans the rest of
+                // the table, which shouldn't keep the provider's writes waiting.
+                args[0] = String.valueOf(lastId);
+                Cursor cursor = mDb.rawQuery(nextBatchEnd, args);
+                long batchEnd;
+                try {
+                    if (!cursor.moveToFirst() || cursor.isNull(0)) {
+                        break;
+                    }
+                    batchEnd = cursor.getLong(0);
+                } finally {
+                    cursor.close();
+                }
+
+                // The delete only removes rows still marked deleted, so a row restored since
+                // the batch was found is left alone
+                mDb.beginTransaction();
+                try {
+                    delete.bindLong(1, lastId);
+                    delete.bindLong(2, batchEnd);
+                    delete.execute();
+                    mDb.setTransactionSuccessful();
+
+                    removed += (int) DatabaseUtils.longForQuery(mDb, "SELECT changes()", null);
+                    lastId = batchEnd;
+                } finally {
+                    mDb.endTransaction();
+                }
+                SystemClock.sleep(mPauseMillis);
+            }
+        } finally {
+            delete.close();
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the database's free pages to the file system, if it is in incremental auto-vacuum
+     * mode.
+     *
+     * @return the number of pages returned.
+     */
+    long vacuum() {
+        if (DatabaseUtils.longForQuery(mDb, "PRAGMA auto_vacuum", null)
+                != ExampleDbHelper.AUTO_VACUUM_INCREMENTAL) {
+            // The pages stay free for new rows until the database is switched to incremental
+            // mode by a maintenance task
+            return 0;
+        }
+
+        long freed = 0;
+        long free;
+        while ((free = DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null)) > 0) {
+            // Returns no rows, but only runs as far as it is stepped
+            Cursor cursor = mDb.rawQuery("PRAGMA incremental_vacuum(" + mVacuumPages + ")", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Each step frees a page
+                }
+            } finally {
+                cursor.close();
+            }
+            long left = DatabaseUtils.longForQuery(mDb, "PRAGMA freelist_count", null);
+            if (left >= free) {
+                // Nothing could be freed, so trying again won't help
+                break;
+            }
+            freed += free - left;
+            SystemClock.sleep(mPauseMillis);
+        }
+        return freed;
+    }
+}
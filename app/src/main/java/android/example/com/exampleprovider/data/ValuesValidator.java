@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.example.com.exampleprovider.data;
+
+import android.content.ContentValues;
+import android.example.com.exampleprovider.data.ExampleContract.ExampleEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks {@link ContentValues} against the columns of a table before they are written.
+ * <p>
+ * The columns are described once, when the validator is built, so checking a row is a fixed list
+ * of map lookups and comparisons. Valid rows are checked without allocating anything: numbers are
+ * read from the values as they are stored, instead of through
+ * {@link ContentValues#getAsInteger(String)}, which boxes and may parse. Only when a row turns out
+ * to be invalid is it checked again to describe everything that is wrong with it.
+ * <p>
+ * Columns that are missing from the values are left for the database to handle, so a missing
+ * NOT NULL column still makes the insert fail rather than throw.
+ */
+final class ValuesValidator {
+
+    private static final int TYPE_INTEGER = 1;
+    private static final int TYPE_TEXT = 2;
+
+    // How many problems the exception message lists before it stops counting them out
+    private static final int MAX_VIOLATIONS_IN_MESSAGE = 10;
+
+    /**
+     * The rules for one column.
+     */
+    static final class Column {
+        final String name;
+        final int type;
+        final boolean notNull;
+        final long min;
+        final long max;
+
+        private Column(String name, int type, boolean notNull, long min, long max) {
+            this.name = name;
+            this.type = type;
+            this.notNull = notNull;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @return whether a non-null value fits this column.
+         */
+        boolean accepts(Object value) {
+            if (type == TYPE_TEXT) {
+                return value instanceof String;
+            }
+            if (value instanceof Long || value instanceof Integer
+                    || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                return number >= min && number <= max;
+            }
+            if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                return number == Math.rint(number) && number >= min && number <= max;
+            }
+            if (value instanceof String) {
+                return isIntegerInRange((String) value, min, max);
+            }
+            return false;
+        }
+
+        /**
+         * Describes why a value doesn't fit this column.
+         */
+        String describe(Object value) {
+            if (value == null) {
+                return name + " cannot be null";
+            }
+            if (type == TYPE_TEXT) {
+                return name + " must be text, was " + value.getClass().getSimpleName();
+            }
+            if (!(value instanceof Number) && !(value instanceof String)) {
+                return name + " must be an integer, was " + value.getClass().getSimpleName();
+            }
+            if (value instanceof String && !isIntegerInRange((String) value,
+                    Long.MIN_VALUE, Long.MAX_VALUE)) {
+                return name + " must be an integer, was \"" + value + "\"";
+            }
+            if (value instanceof Double || value instanceof Float) {
+                double number = ((Number) value).doubleValue();
+                if (number != Math.rint(number)) {
+                    return name + " must be an integer, was " + value;
+                }
+            }
+            if (min == Long.MIN_VALUE) {
+                return name + " must be at most " + max + ", was " + value;
+            }
+            if (max == Long.MAX_VALUE) {
+                return name + " must be at least " + min + ", was " + value;
+            }
+            return name + " must be between " + min + " and " + max + ", was " + value;
+        }
+    }
+
+    /**
+     * Thrown when values don't fit the table. The message lists the problems, and
+     * {@link #getViolations()} returns all of them.
+     */
+    static final class ValidationException extends IllegalArgumentException {
+        private final List<String> mViolations;
+
+        ValidationException(List<String> violations) {
+            super(buildMessage(violations));
+            mViolations = Collections.unmodifiableList(violations);
+        }
+
+        List<String> getViolations() {
+            return mViolations;
+        }
+
+        private static String buildMessage(List<String> violations) {
+            StringBuilder message = new StringBuilder("Invalid values: ");
+            int listed = Math.min(violations.size(), MAX_VIOLATIONS_IN_MESSAGE);
+            for (int i = 0; i < listed; i++) {
+                if (i > 0) message.append("; ");
+                message.append(violations.get(i));
+            }
+            if (violations.size() > listed) {
+                message.append("; and ").append(violations.size() - listed).append(" more");
+            }
+            return message.toString();
+        }
+    }
+
+    /**
+     * An integer column which only accepts values from {@code min} to {@code max}.
+     */
+    static Column integerColumn(String name, boolean notNull, long min, long max) {
+        return new Column(name, TYPE_INTEGER, notNull, min, max);
+    }
+
+    /**
+     * A text column.
+     */
+    static Column textColumn(String name, boolean notNull) {
+        return new Column(name, TYPE_TEXT, notNull, 0, 0);
+    }
+
+    /**
+     * Builds the validator for the friends table described by {@link ExampleEntry}.
+     */
+    static ValuesValidator forFriends() {
+        return new ValuesValidator(
+                integerColumn(ExampleEntry._ID, false, Long.MIN_VALUE, Long.MAX_VALUE),
+                textColumn(ExampleEntry.NAME, true),
+                integerColumn(ExampleEntry.NUMBER_OF_FRIENDS, true,
+                        ExampleEntry.MIN_NUMBER_OF_FRIENDS, Integer.MAX_VALUE));
+    }
+
+    private final Column[] mColumns;
+
+    ValuesValidator(Column... columns) {
+        mColumns = columns;
+    }
+
+    /**
+     * Checks one row.
+     *
+     * @throws ValidationException listing everything that is wrong with the values.
+     */
+    void validate(ContentValues values) {
+        if (!isValid(values)) {
+            List<String> violations = new ArrayList<String>();
+            addViolations(values, null, violations);
+            throw new ValidationException(violations);
+        }
+    }
+
+    /**
+     * Checks every row, so that a bulk insert can be rejected before anything is written.
+     *
+     * @throws ValidationException listing everything that is wrong with every invalid row.
+     */
+    void validateAll(ContentValues[] rows) {
+        for (int i = 0; i < rows.length; i++) {
+            if (!isValid(rows[i])) {
+                // Slow path: go through the rest of the rows to describe all of the problems
+                List<String> violations = new ArrayList<String>();
+                for (int j = i; j < rows.length; j++) {
+                    addViolations(rows[j], "row " + j + ": ", violations);
+                }
+                throw new ValidationException(violations);
+            }
+        }
+    }
+
+    /**
+     * @return whether the values fit the table. Doesn't allocate.
+     */
+    boolean isValid(ContentValues values) {
+        if (values == null) {
+            return false;
+        }
+        int columnsFound = 0;
+        for (int i = 0; i < mColumns.length; i++) {
+            Column column = mColumns[i];
+            Object value = values.get(column.name);
+            if (value == null) {
+                if (values.containsKey(column.name)) {
+                    columnsFound++;
+                    if (column.notNull) return false;
+                }
+                continue;
+            }
+            columnsFound++;
+            if (!column.accepts(value)) return false;
+        }
+        // Anything left over isn't a column of the table
+        return columnsFound == values.size();
+    }
+
+    private void addViolations(ContentValues values, String prefix, List<String> violations) {
+        if (prefix == null) prefix = "";
+        if (values == null) {
+            violations.add(prefix + "Cannot have null content values");
+            return;
+        }
+        for (Column column : mColumns) {
+            Object value = values.get(column.name);
+            if (value == null) {
+                if (column.notNull && values.containsKey(column.name)) {
+                    violations.add(prefix + column.describe(null));
+                }
+            } else if (!column.accepts(value)) {
+                violations.add(prefix + column.describe(value));
+            }
+        }
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            if (!hasColumn(entry.getKey())) {
+                violations.add(prefix + "Unknown column " + entry.getKey());
+            }
+        }
+    }
+
+    private boolean hasColumn(String name) {
+        for (Column column : mColumns) {
+            if (column.name.equals(name)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a string is a decimal integer from {@code min} to {@code max}, the same way
+     * SQLite would convert it for an INTEGER column, without parsing it into a new object.
+     */
+    static boolean isIntegerInRange(String text, long min, long max) {
+        int length = text.length();
+        int i = 0;
+        boolean negative = false;
+        if (length > 0 && (text.charAt(0) == '-' || text.charAt(0) == '+')) {
+            negative = text.charAt(0) == '-';
+            i++;
+        }
+        if (i == length) {
+            return false;
+        }
+        // Accumulates as a negative number, which has room for Long.MIN_VALUE
+        long result = 0;
+        for (; i < length; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return false;
+            if (result < (Long.MIN_VALUE + digit) / 10) return false;
+            result = result * 10 - digit;
+        }
+        if (!negative) {
+            if (result == Long.MIN_VALUE) return false;
+            result = -result;
+        }
+        return result >= min && result <= max;
+    }
+}